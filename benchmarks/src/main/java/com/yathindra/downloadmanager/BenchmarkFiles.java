@@ -0,0 +1,94 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * Deletes a directory with everything in it.
+     * @param directory The directory to delete.
+     * @throws IOException Exception is thrown if a file cannot be deleted.
+     */
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Points the download at a file in the given directory so that benchmarks do not write to the working directory.
+     * @param metadata The metadata of the download.
+     * @param directory The directory of the download file.
+     */
+    static void placeIn(DownloadMetadata metadata, Path directory) {
+        metadata.setFilename(directory.resolve(metadata.getFilename()).toString());
+    }
+
+    /**
+     * Returns a stream of zero bytes that hands out whole buffers like a fast network stream would.
+     * @param length The length of the stream.
+     * @return The stream.
+     */
+    static InputStream zeroStream(long length) {
+        return new InputStream() {
+            private long left = length;
+
+            @Override
+            public int read() {
+                if (left <= 0) {
+                    return -1;
+                }
+                left--;
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) {
+                if (left <= 0) {
+                    return -1;
+                }
+                int read = (int) Math.min(count, left);
+                left -= read;
+                return read;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, left);
+            }
+        };
+    }
+
+    /**
+     * A sink that drops everything written to it.
+     */
+    static final PartSink NULL_SINK = new PartSink() {
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+}
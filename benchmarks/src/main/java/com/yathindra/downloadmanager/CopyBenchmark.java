@@ -0,0 +1,84 @@
+package com.yathindra.downloadmanager;
+
+import javafx.beans.property.SimpleObjectProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transfer loop of a part from an in-memory stream into a sink that drops the bytes,
+ * so only the cost of the loop itself is measured. Run with {@code -prof gc} to see the allocation per chunk.
+ * The byte-at-a-time copy the part used to do is kept as a baseline, and a copy that also hashes shows the cost of the checksum.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+    private static final long SIZE = 64L * 1024 * 1024;
+
+    @Param({"16384", "65536", "262144"})
+    public int chunkSize;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BufferPool.shared().setChunkSize(chunkSize);
+    }
+
+    private DownloadPartMetadata newPart() throws MalformedURLException {
+        DownloadMetadata metadata = new DownloadMetadata("http://127.0.0.1/file.bin", 0);
+        return new DownloadPartMetadata(metadata, 0, new Part(0, SIZE - 1));
+    }
+
+    @Benchmark
+    public long copyToStream() throws IOException {
+        DownloadPartMetadata partMetadata = newPart();
+        DownloadPartRunnable part = new DownloadPartRunnable(partMetadata, new ControlChannel(), null, null,
+                new BandwidthLimiter(BandwidthLimiter.UNLIMITED), new DownloadMetrics(new DownloadMetrics()), null, new RetryPolicy(), null);
+        part.copyToStream(BenchmarkFiles.zeroStream(SIZE), BenchmarkFiles.NULL_SINK);
+        return partMetadata.getCompletedBytes();
+    }
+
+    @Benchmark
+    public long copyToStreamHashed() throws IOException {
+        DownloadPartMetadata partMetadata = newPart();
+        DownloadDigest digest = new DownloadDigest();
+        DownloadPartRunnable part = new DownloadPartRunnable(partMetadata, new ControlChannel(), null, null,
+                new BandwidthLimiter(BandwidthLimiter.UNLIMITED), new DownloadMetrics(new DownloadMetrics()), digest, new RetryPolicy(), null);
+        part.copyToStream(BenchmarkFiles.zeroStream(SIZE), BenchmarkFiles.NULL_SINK);
+        return digest.getPosition();
+    }
+
+    @Benchmark
+    public long byteAtATimeBaseline() throws IOException {
+        SimpleObjectProperty<Long> completedBytes = new SimpleObjectProperty<>(0L);
+        long completed = 0;
+        int read;
+        try (InputStream inputStream = new BufferedInputStream(BenchmarkFiles.zeroStream(SIZE))) {
+            while ((read = inputStream.read()) != -1) {
+                BenchmarkFiles.NULL_SINK.write(null, read, 1);
+                completed++;
+                completedBytes.setValue(completed);
+            }
+        }
+        return completedBytes.getValue();
+    }
+}
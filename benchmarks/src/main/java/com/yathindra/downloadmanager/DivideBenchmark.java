@@ -0,0 +1,48 @@
+package com.yathindra.downloadmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.MalformedURLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures dividing a download into the ranges of its parts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DivideBenchmark {
+
+    @Param({"2", "8", "32"})
+    public int connections;
+
+    private DownloadRunnable download;
+
+    @Setup(Level.Trial)
+    public void setUp() throws MalformedURLException {
+        DownloadMetadata metadata = new DownloadMetadata("http://127.0.0.1/file.bin", 0);
+        metadata.setSize(10L * 1024 * 1024 * 1024);
+        metadata.setConnections(connections);
+        download = new DownloadRunnable(metadata, new ControlChannel(), new DownloadContext());
+    }
+
+    @Benchmark
+    public List<Part> divideDownload() {
+        return download.divideDownload();
+    }
+}
@@ -0,0 +1,109 @@
+package com.yathindra.downloadmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a whole download, from the HEAD request to the finished file, against an in-process HTTP server.
+ * The transport, the output and the threads the download runs on can be compared.
+ * The same number of bytes is split over one or many downloads that run at once, so the threads can be compared
+ * with a few busy connections and with hundreds of mostly waiting ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    private static final int SIZE = 64 * 1024 * 1024;
+
+    @Param({"URL_CONNECTION", "HTTP_CLIENT"})
+    public TransportType transport;
+
+    @Param({"PART_FILES", "POSITIONAL"})
+    public OutputMode outputMode;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ExecutionMode execution;
+
+    @Param({"1", "256"})
+    public int downloads;
+
+    private RangeServer server;
+    private DownloadContext context;
+    private Path directory;
+    private int nextID;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new RangeServer();
+        context = new DownloadContext(new DownloadExecutor(execution));
+        //Every download gets a connection of its own, so the downloads really run at once.
+        int connections = Math.max(DownloadContext.DEFAULT_MAX_CONNECTIONS, downloads);
+        context.getConnectionLimiter().setLimit(connections);
+        context.setMaxConnectionsPerHost(connections);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("end-to-end-benchmark");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDirectory() throws IOException {
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public long download() throws IOException, InterruptedException {
+        List<DownloadMetadata> metadatas = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < downloads; i++) {
+            DownloadMetadata metadata = new DownloadMetadata(server.getUrl(SIZE / downloads), nextID++);
+            BenchmarkFiles.placeIn(metadata, directory);
+            metadata.setTransport(transport);
+            metadata.setOutputMode(outputMode);
+            metadatas.add(metadata);
+            threads.add(context.getExecutor().newThread(new DownloadRunnable(metadata, new ControlChannel(), context), "Download " + metadata.getDownloadID()));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long size = 0;
+        for (DownloadMetadata metadata : metadatas) {
+            if (metadata.getStatus() != DownloadStatus.COMPLETED) {
+                throw new IllegalStateException("The download ended as " + metadata.getStatus());
+            }
+            size += Files.size(Path.of(metadata.getFilename()));
+        }
+        return size;
+    }
+}
@@ -0,0 +1,85 @@
+package com.yathindra.downloadmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures joining the part files of a finished download into the download file.
+ * The part files are written again before every join since the join deletes them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JoinBenchmark {
+
+    private static final long SIZE = 256L * 1024 * 1024;
+
+    @Param({"4", "16"})
+    public int parts;
+
+    private Path directory;
+    private DownloadRunnable download;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("join-benchmark");
+        DownloadMetadata metadata = new DownloadMetadata("http://127.0.0.1/file.bin", 0);
+        BenchmarkFiles.placeIn(metadata, directory);
+        metadata.setSize(SIZE);
+        metadata.setConnections(parts);
+        //Only a ranged download is divided into parts, a single part would be moved instead of joined.
+        metadata.setAccelerated(true);
+        download = new DownloadRunnable(metadata, new ControlChannel(), new DownloadContext());
+        download.createDownloadPartThreads();
+        if (download.getPartMetadatas().size() != parts) {
+            throw new IllegalStateException("The download was divided into " + download.getPartMetadatas().size() + " parts");
+        }
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(parts).nextBytes(chunk);
+        for (DownloadPartMetadata partMetadata : download.getPartMetadatas()) {
+            long length = partMetadata.getPart().getLength();
+            try (FileOutputStream file = new FileOutputStream(partMetadata.getFilename())) {
+                for (long written = 0; written < length; written += chunk.length) {
+                    file.write(chunk, 0, (int) Math.min(chunk.length, length - written));
+                }
+            }
+            partMetadata.setCompletedBytes(length);
+            partMetadata.setStatus(DownloadStatus.COMPLETED);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public DownloadStatus joinDownloadParts() {
+        download.joinDownloadParts();
+        if (download.getStatus() != DownloadStatus.COMPLETED) {
+            throw new IllegalStateException("The join ended as " + download.getStatus());
+        }
+        return download.getStatus();
+    }
+}
@@ -0,0 +1,168 @@
+package com.yathindra.downloadmanager;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs downloads through a {@link DownloadPool} against a {@link RangeServer} with a different failure mode
+ * in each scenario, and reports the throughput and the time to recover from the injected faults.
+ * Every finished download is compared byte by byte with the synthetic file.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar com.yathindra.downloadmanager.ScenarioRunner [size in MiB] [transport]}
+ */
+public class ScenarioRunner {
+
+    private static final long TIMEOUT_MILLIS = 30000;
+    private static final long POLL_MILLIS = 10;
+    private static final double MiB = 1024 * 1024;
+
+    /**
+     * A failure mode of the server and what the client does during the download.
+     */
+    private static class Scenario {
+
+        private final String name;
+        private final Consumer<RangeServer> faults;
+        private final boolean pauseAndResume;
+
+        private Scenario(String name, Consumer<RangeServer> faults, boolean pauseAndResume) {
+            this.name = name;
+            this.faults = faults;
+            this.pauseAndResume = pauseAndResume;
+        }
+    }
+
+    private static final List<Scenario> SCENARIOS = Arrays.asList(
+            new Scenario("baseline", server -> {
+            }, false),
+            new Scenario("rate limit 8 MiB/s per connection", server -> server.setRateLimit(8L * 1024 * 1024), false),
+            new Scenario("latency 200 ms", server -> server.setLatencyMillis(200), false),
+            new Scenario("6 resets after 1 MiB", server -> server.resetConnections(6, 1024 * 1024), false),
+            new Scenario("5 times 503", server -> server.refuseRequests(5), false),
+            new Scenario("pause and resume", server -> server.setRateLimit(16L * 1024 * 1024), true),
+            new Scenario("ranges ignored", server -> server.setIgnoreRanges(true), false)
+    );
+
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 64) * 1024 * 1024;
+        TransportType transport = args.length > 1 ? TransportType.valueOf(args[1]) : TransportType.URL_CONNECTION;
+        Path directory = Files.createTempDirectory("scenarios");
+        try (RangeServer server = new RangeServer()) {
+            System.out.printf(Locale.ROOT, "%-36s %-10s %9s %9s %9s %7s %8s %13s%n",
+                    "scenario", "result", "seconds", "MiB/s", "requests", "faults", "retries", "recovery ms");
+            for (Scenario scenario : SCENARIOS) {
+                run(scenario, server, directory, size, transport);
+            }
+        } finally {
+            BenchmarkFiles.deleteRecursively(directory);
+        }
+        System.exit(0);
+    }
+
+    private static void run(Scenario scenario, RangeServer server, Path directory, long size, TransportType transport) throws Exception {
+        server.clearFaults();
+        scenario.faults.accept(server);
+        long requests = server.getRequests();
+        long faults = server.getFaults();
+
+        DownloadPool pool = new DownloadPool();
+        pool.setDownloadDirectory(directory.toString());
+        pool.setDefaultTransport(transport);
+        long start = System.nanoTime();
+        pool.newDownload(server.getUrl(size));
+        DownloadThread download = pool.getDownloadThreads().get(pool.getDownloadThreads().size() - 1);
+
+        long recoveryNanos = -1;
+        if (scenario.pauseAndResume) {
+            recoveryNanos = pauseAndResume(pool, download, size);
+        }
+        boolean finished = waitUntilFinished(download, start);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (!finished) {
+            pool.stopDownload(download).get(5, TimeUnit.SECONDS);
+        }
+        if (!scenario.pauseAndResume) {
+            recoveryNanos = server.getRecoveryNanos();
+        }
+
+        String result;
+        if (!finished) {
+            result = "timeout";
+        } else if (download.getDownloadMetadata().getStatus() != DownloadStatus.COMPLETED) {
+            result = download.getDownloadMetadata().getStatus().toString().toLowerCase(Locale.ROOT);
+        } else {
+            result = verify(Path.of(download.getDownloadMetadata().getFilename()), size) ? "ok" : "corrupt";
+        }
+        System.out.printf(Locale.ROOT, "%-36s %-10s %9.2f %9.1f %9d %7d %8d %13s%n",
+                scenario.name, result, seconds, download.getDownload().getCompletedBytes() / MiB / seconds,
+                server.getRequests() - requests, server.getFaults() - faults,
+                download.getDownload().getMetrics().getRetries(),
+                recoveryNanos < 0 ? "-" : String.format(Locale.ROOT, "%.1f", recoveryNanos / 1e6));
+        pool.removeDownload(download);
+        BenchmarkFiles.deleteRecursively(directory);
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Pauses the download a third of the way, resumes it after a second and measures how long it takes to make progress again.
+     * @return The time from resuming to the first new byte in nanoseconds, or -1 if the download did not make progress.
+     */
+    private static long pauseAndResume(DownloadPool pool, DownloadThread download, long size) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (download.getDownload().getCompletedBytes() < size / 3 && System.nanoTime() < deadline) {
+            Thread.sleep(POLL_MILLIS);
+        }
+        pool.pauseDownload(download).get(5, TimeUnit.SECONDS);
+        Thread.sleep(1000);
+        long paused = download.getDownload().getCompletedBytes();
+        long resumed = System.nanoTime();
+        pool.resumeDownload(download).get(5, TimeUnit.SECONDS);
+        while (download.getDownload().getCompletedBytes() == paused && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        return download.getDownload().getCompletedBytes() == paused ? -1 : System.nanoTime() - resumed;
+    }
+
+    private static boolean waitUntilFinished(DownloadThread download, long start) throws InterruptedException {
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (System.nanoTime() < deadline) {
+            DownloadStatus status = download.getDownloadMetadata().getStatus();
+            if (status == DownloadStatus.COMPLETED || (status == DownloadStatus.ERROR && !download.thread.isAlive())) {
+                return true;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        return false;
+    }
+
+    private static boolean verify(Path file, long size) throws IOException {
+        if (Files.size(file) != size) {
+            return false;
+        }
+        byte[] expected = new byte[1024 * 1024];
+        byte[] actual = new byte[expected.length];
+        try (InputStream in = new FileInputStream(file.toFile())) {
+            for (long position = 0; position < size; position += expected.length) {
+                int length = (int) Math.min(expected.length, size - position);
+                if (in.readNBytes(actual, 0, length) != length) {
+                    return false;
+                }
+                RangeServer.fill(expected, position, length);
+                if (!Arrays.equals(expected, 0, length, actual, 0, length)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package com.yathindra.downloadmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures saving and loading the download history with many downloads in it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+    private static final int PARTS_PER_DOWNLOAD = 8;
+
+    @Param({"100", "1000", "10000"})
+    public int downloads;
+
+    private Path directory;
+    private DownloadStorage storage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("storage-benchmark");
+        storage = new DownloadStorage(directory.toString() + "/");
+        for (int id = 0; id < downloads; id++) {
+            DownloadMetadata metadata = new DownloadMetadata("http://127.0.0.1/file" + id + ".bin", id);
+            metadata.setSize(1024L * 1024 * 1024);
+            metadata.setStatus(id % 2 == 0 ? DownloadStatus.COMPLETED : DownloadStatus.PAUSED);
+            List<DownloadPartMetadata> parts = new ArrayList<>();
+            long partSize = metadata.getSize() / PARTS_PER_DOWNLOAD;
+            for (int partID = 0; partID < PARTS_PER_DOWNLOAD; partID++) {
+                DownloadPartMetadata partMetadata = new DownloadPartMetadata(metadata, partID, new Part(partID * partSize, (partID + 1) * partSize - 1));
+                partMetadata.setCompletedBytes(partSize / 2);
+                parts.add(partMetadata);
+            }
+            storage.addDownload(new DownloadInfo(metadata, parts));
+        }
+        storage.save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public DownloadStorage save() {
+        storage.save();
+        return storage;
+    }
+
+    @Benchmark
+    public List<DownloadInfo> load() {
+        DownloadStorage loaded = new DownloadStorage(directory.toString() + "/");
+        loaded.load();
+        if (loaded.getDownloads().size() != downloads) {
+            throw new IllegalStateException("Loaded " + loaded.getDownloads().size() + " of " + downloads + " downloads");
+        }
+        return loaded.getDownloads();
+    }
+}
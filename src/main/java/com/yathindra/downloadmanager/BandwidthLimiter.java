@@ -0,0 +1,99 @@
+package com.yathindra.downloadmanager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the throughput of the parts that share it, using the generic cell rate algorithm.
+ * The limiter keeps a single theoretical arrival time which every transferred chunk moves forward by the time
+ * the chunk takes at the allowed rate, so a chunk costs one compare-and-set and no lock.
+ * Parts that reserve chunks of the same size take turns on the arrival time, which shares the rate fairly
+ * between them, and a part that cannot use its share leaves it to the others.
+ * A limiter can have a parent, so a download is held to its own rate and to the rate of the whole pool.
+ */
+public class BandwidthLimiter {
+
+    public static final long UNLIMITED = 0;
+    //How far ahead of the allowed rate a burst may run before the parts are made to wait.
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    //Chunks are kept to a tenth of a second at the allowed rate so that slow limits stay smooth.
+    private static final int CHUNKS_PER_SECOND = 10;
+    private static final int MIN_CHUNK_SIZE = 4 * 1024;
+
+    private final BandwidthLimiter parent;
+    private final AtomicLong arrivalTime = new AtomicLong(System.nanoTime());
+    private volatile long bytesPerSecond;
+
+    /**
+     * Constructor for a limiter without a parent.
+     * @param bytesPerSecond The allowed rate, or {@link #UNLIMITED}.
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, null);
+    }
+
+    /**
+     * Constructor.
+     * @param bytesPerSecond The allowed rate, or {@link #UNLIMITED}.
+     * @param parent The limiter that also holds back every chunk, or null.
+     */
+    public BandwidthLimiter(long bytesPerSecond, BandwidthLimiter parent) {
+        this.parent = parent;
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Changes the allowed rate. Running parts follow the new rate from their next chunk.
+     * @param bytesPerSecond The allowed rate, or {@link #UNLIMITED}.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("The bandwidth limit cannot be negative: " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        //The backlog reserved at the old rate is forgiven so that raising the limit applies at once.
+        long now = System.nanoTime();
+        arrivalTime.accumulateAndGet(now, Math::min);
+    }
+
+    /**
+     * Returns the largest chunk a part should transfer at once under this limiter and its parents.
+     * @param chunkSize The chunk size without a limit.
+     * @return The chunk size to use.
+     */
+    public int getChunkSize(int chunkSize) {
+        long rate = bytesPerSecond;
+        if (rate != UNLIMITED) {
+            chunkSize = (int) Math.min(chunkSize, Math.max(MIN_CHUNK_SIZE, rate / CHUNKS_PER_SECOND));
+        }
+        return parent == null ? chunkSize : parent.getChunkSize(chunkSize);
+    }
+
+    /**
+     * Takes the time a number of transferred bytes costs at the allowed rate.
+     * @param bytes The number of bytes transferred.
+     * @return The time in nanoseconds the part has to wait before it transfers more, 0 if it can go on at once.
+     */
+    public long reserve(long bytes) {
+        long wait = parent == null ? 0 : parent.reserve(bytes);
+        long rate = bytesPerSecond;
+        if (rate == UNLIMITED) {
+            return wait;
+        }
+        long cost = bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+        long now;
+        long next;
+        long current;
+        do {
+            now = System.nanoTime();
+            current = arrivalTime.get();
+            //Time the limiter was not used for is not saved up beyond the burst.
+            next = Math.max(current, now - BURST_NANOS) + cost;
+        } while (!arrivalTime.compareAndSet(current, next));
+        return Math.max(wait, next - now);
+    }
+}
@@ -0,0 +1,89 @@
+package com.yathindra.downloadmanager;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of reusable transfer buffers shared by all download parts.
+ * Buffers are handed out with {@link #acquire()} and must be given back with {@link #release(byte[])}.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_RETAINED = 64;
+    private static final BufferPool shared = new BufferPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_RETAINED);
+
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retained = new AtomicInteger();
+    private final int maxRetained;
+    private volatile int chunkSize;
+
+    /**
+     * Constructor.
+     * @param chunkSize The size in bytes of every buffer handed out by the pool.
+     * @param maxRetained The maximum number of idle buffers kept for reuse.
+     */
+    public BufferPool(int chunkSize, int maxRetained) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * Returns the pool used by the download parts.
+     * @return The shared buffer pool.
+     */
+    public static BufferPool shared() {
+        return shared;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Changes the chunk size. Buffers of the old size are dropped as they are released.
+     * @param chunkSize The new chunk size in bytes.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        buffers.clear();
+        retained.set(0);
+    }
+
+    /**
+     * Takes a buffer from the pool, allocating a new one if none is idle.
+     * @return A buffer of the current chunk size.
+     */
+    public byte[] acquire() {
+        int size = chunkSize;
+        byte[] buffer;
+        while ((buffer = buffers.poll()) != null) {
+            retained.decrementAndGet();
+            if (buffer.length == size) {
+                return buffer;
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Gives a buffer back to the pool.
+     * @param buffer The buffer previously returned by {@link #acquire()}.
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != chunkSize) {
+            return;
+        }
+        if (retained.incrementAndGet() > maxRetained) {
+            retained.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
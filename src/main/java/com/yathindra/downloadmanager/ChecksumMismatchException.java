@@ -0,0 +1,15 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a downloaded file does not have the checksum it was expected to have.
+ */
+public class ChecksumMismatchException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ChecksumMismatchException(String filename, String expected, String actual) {
+        super("Checksum of " + filename + " is " + actual + " but " + expected + " was expected");
+    }
+}
@@ -0,0 +1,131 @@
+package com.yathindra.downloadmanager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds back the requests to a host that keeps failing, shared by all downloads of a pool.
+ * The breaker is closed while requests succeed. After a number of failures in a row it opens and no request is
+ * made to the host until the open time has passed. Then a single request is let through as a probe: if it
+ * succeeds the breaker closes again, and if it fails the breaker opens again for twice as long.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 1000;
+    public static final long MAX_OPEN_MILLIS = 60000;
+    //How often requests held back while the probe is underway ask again.
+    private static final long PROBE_WAIT_MILLIS = 100;
+    //A probe without a result after this long is given up, so that a lost probe cannot hold the host back forever.
+    private static final long PROBE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String host;
+    private final int failureThreshold;
+    private final long baseOpenMillis;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openMillis;
+    private long openUntilNanos;
+    private long probeNanos;
+    private long opened;
+
+    /**
+     * Constructor.
+     * @param host The host whose requests the breaker guards.
+     * @param failureThreshold The number of failures in a row that opens the breaker.
+     * @param openMillis The time the breaker stays open the first time in milliseconds.
+     */
+    public CircuitBreaker(String host, int failureThreshold, long openMillis) {
+        this.host = host;
+        this.failureThreshold = failureThreshold;
+        this.baseOpenMillis = openMillis;
+        this.openMillis = openMillis;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns how often the breaker opened.
+     * @return The number of times the breaker opened.
+     */
+    public synchronized long getOpenCount() {
+        return opened;
+    }
+
+    /**
+     * Checks if requests to the host are held back right now.
+     * @return If the breaker is open and its open time has not passed yet.
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() - openUntilNanos < 0;
+    }
+
+    /**
+     * Asks to make a request to the host. Every request that is let through must report its result.
+     * @throws CircuitOpenException Exception is thrown if the request has to wait, with the time to wait.
+     */
+    public synchronized void acquire() throws CircuitOpenException {
+        long now = System.nanoTime();
+        switch (state) {
+            case OPEN:
+                if (now - openUntilNanos < 0) {
+                    throw new CircuitOpenException(host, Math.max(1, TimeUnit.NANOSECONDS.toMillis(openUntilNanos - now)));
+                }
+                state = State.HALF_OPEN;
+                probeNanos = now;
+                return;
+            case HALF_OPEN:
+                if (now - probeNanos < PROBE_TIMEOUT_NANOS) {
+                    throw new CircuitOpenException(host, PROBE_WAIT_MILLIS);
+                }
+                probeNanos = now;
+                return;
+            case CLOSED:
+            default:
+        }
+    }
+
+    /**
+     * Records that the host answered a request.
+     */
+    public synchronized void recordSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+        openMillis = baseOpenMillis;
+    }
+
+    /**
+     * Records that a request to the host failed.
+     * @param retryAfterMillis The time the host asked to wait in milliseconds, or -1.
+     */
+    public synchronized void recordFailure(long retryAfterMillis) {
+        failures++;
+        if (state == State.HALF_OPEN) {
+            //The probe failed, so the host is given longer to recover.
+            openMillis = Math.min(MAX_OPEN_MILLIS, openMillis * 2);
+            open(retryAfterMillis);
+        } else if (state == State.CLOSED && failures >= failureThreshold) {
+            open(retryAfterMillis);
+        }
+    }
+
+    private void open(long retryAfterMillis) {
+        state = State.OPEN;
+        opened++;
+        openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(openMillis, retryAfterMillis));
+    }
+}
@@ -0,0 +1,26 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a request to a host whose circuit breaker is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long waitMillis;
+
+    public CircuitOpenException(String host, long waitMillis) {
+        super("Requests to " + host + " are held back for " + waitMillis + " ms after repeated failures");
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Returns how long to wait before asking the circuit breaker again.
+     * @return The time in milliseconds.
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+}
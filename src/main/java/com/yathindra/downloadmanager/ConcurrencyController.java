@@ -0,0 +1,87 @@
+package com.yathindra.downloadmanager;
+
+/**
+ * Chooses the number of connections of a download from its measured throughput.
+ * A connection is added as a probe and kept while the throughput keeps rising (additive increase).
+ * A probe that does not raise the throughput is taken back, and errors cut the connections by a factor (multiplicative decrease).
+ */
+public class ConcurrencyController {
+
+    //The throughput has to rise by this factor for an added connection to count as useful.
+    private static final double RISE_FACTOR = 1.05;
+    private static final double ERROR_DECREASE = 0.5;
+    //Number of measurements the connection count is kept after a decrease or a failed probe before probing again.
+    private static final int HOLD_INTERVALS = 5;
+
+    private final int minConnections;
+    private final int maxConnections;
+    private int connections;
+    //The throughput measured with the connections before the probe.
+    private double baseline;
+    private boolean probing;
+    private long lastErrors = -1;
+    private int hold;
+
+    /**
+     * Constructor.
+     * @param minConnections The lowest number of connections the controller chooses.
+     * @param maxConnections The highest number of connections the controller chooses.
+     * @param connections The number of connections to start with.
+     */
+    public ConcurrencyController(int minConnections, int maxConnections, int connections) {
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+        this.connections = Math.max(minConnections, Math.min(maxConnections, connections));
+    }
+
+    public synchronized int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Takes a new measurement and returns the number of connections to use until the next one.
+     * @param bytesPerSecond The aggregate throughput of the download since the last measurement.
+     * @param errors The total number of errors of the download so far.
+     * @return The number of connections to use.
+     */
+    public synchronized int update(double bytesPerSecond, long errors) {
+        boolean newErrors = lastErrors >= 0 && errors > lastErrors;
+        lastErrors = errors;
+        if (newErrors) {
+            decrease(ERROR_DECREASE);
+        } else if (hold > 0) {
+            hold--;
+            baseline = bytesPerSecond;
+        } else if (probing) {
+            probing = false;
+            if (bytesPerSecond >= baseline * RISE_FACTOR) {
+                baseline = bytesPerSecond;
+                probe();
+            } else {
+                //The baseline stays the throughput measured before the probe.
+                connections--;
+                hold = HOLD_INTERVALS;
+            }
+        } else {
+            baseline = bytesPerSecond;
+            //A download that does not move yet gives nothing to compare a probe with.
+            if (bytesPerSecond > 0) {
+                probe();
+            }
+        }
+        return connections;
+    }
+
+    private void probe() {
+        if (connections < maxConnections) {
+            connections++;
+            probing = true;
+        }
+    }
+
+    private void decrease(double factor) {
+        connections = Math.max(minConnections, (int) Math.ceil(connections * factor));
+        probing = false;
+        hold = HOLD_INTERVALS;
+    }
+}
@@ -0,0 +1,84 @@
+package com.yathindra.downloadmanager;
+
+/**
+ * Caps the number of connections open over all downloads of a pool.
+ * Downloads register while they run so that every download can be given a fair share of the connections.
+ */
+public class ConnectionLimiter {
+
+    private int limit;
+    private int inUse;
+    private int downloads;
+
+    /**
+     * Constructor.
+     * @param limit The maximum number of connections open at the same time.
+     */
+    public ConnectionLimiter(int limit) {
+        setLimit(limit);
+    }
+
+    /**
+     * Takes a connection if one is free.
+     * @return If a connection was taken.
+     */
+    public synchronized boolean tryAcquire() {
+        if (inUse >= limit) {
+            return false;
+        }
+        inUse++;
+        return true;
+    }
+
+    /**
+     * Gives back a connection taken with {@link #tryAcquire()}.
+     */
+    public synchronized void release() {
+        if (inUse > 0) {
+            inUse--;
+        }
+    }
+
+    /**
+     * Changes the limit. Connections above a lowered limit are given back as their parts park or finish.
+     * @param limit The new maximum number of connections.
+     */
+    public synchronized void setLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The connection limit must be at least 1: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInUse() {
+        return inUse;
+    }
+
+    /**
+     * Registers a running download.
+     */
+    public synchronized void register() {
+        downloads++;
+    }
+
+    /**
+     * Unregisters a download that stopped running.
+     */
+    public synchronized void unregister() {
+        if (downloads > 0) {
+            downloads--;
+        }
+    }
+
+    /**
+     * Returns the number of connections a single running download may hold when all downloads want more.
+     * @return The fair share of connections, at least one.
+     */
+    public synchronized int getFairShare() {
+        return Math.max(1, limit / Math.max(1, downloads));
+    }
+}
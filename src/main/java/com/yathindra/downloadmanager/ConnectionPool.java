@@ -0,0 +1,295 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits the connections a transport has in use to each host, keyed by scheme, host and port.
+ * A request leases a connection to its host and gives it back when its response is closed.
+ * Leases are shared by the parts, retries and downloads of a pool, and each host has its own limit.
+ * The pool holds no sockets itself. Whether a socket is reused is up to the transport: the keep-alive cache
+ * of the JDK for {@link UrlConnectionTransport}, and the client of the host for {@link HttpClientTransport}.
+ * The pool only counts how many leases were given back with their body read to the end, so that the transport
+ * may reuse the connection, and how many were given back with their connection broken off.
+ * A host that has had no lease for the idle timeout is forgotten, and its client is closed.
+ */
+public class ConnectionPool {
+
+    public static final int DEFAULT_MAX_PER_HOST = 16;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong reusableReleases = new AtomicLong();
+    private final AtomicLong discardedReleases = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private int maxPerHost;
+    private long idleTimeoutMillis;
+
+    public ConnectionPool() {
+        this(DEFAULT_MAX_PER_HOST, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     * @param maxPerHost The maximum number of connections leased to a single host at the same time.
+     * @param idleTimeoutMillis The time in milliseconds a host without leases keeps its client.
+     */
+    public ConnectionPool(int maxPerHost, long idleTimeoutMillis) {
+        setMaxPerHost(maxPerHost);
+        setIdleTimeoutMillis(idleTimeoutMillis);
+    }
+
+    /**
+     * Returns the key of the host of a URL.
+     * @param url The URL.
+     * @return The scheme, host and port of the URL, with the default port filled in.
+     */
+    public static String keyOf(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+
+    /**
+     * Leases a connection to the host of a URL, waiting while the host is at its limit.
+     * @param url The URL that will be requested.
+     * @param timeout The longest time to wait for a free connection in milliseconds.
+     * @return The lease, which is given back with {@link Lease#release(boolean)}.
+     * @throws IOException Exception is thrown if no connection became free in time.
+     */
+    public Lease acquire(URL url, int timeout) throws IOException {
+        String key = keyOf(url);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        List<Object> evicted;
+        Lease lease;
+        synchronized (this) {
+            evicted = evictIdle();
+            Host host = hosts.computeIfAbsent(key, Host::new);
+            while (host.leased >= maxPerHost) {
+                long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (wait <= 0) {
+                    throw new IOException("No connection to " + key + " became free within " + timeout + " ms");
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a connection to " + key);
+                }
+                //The entry may have been evicted and replaced while waiting.
+                host = hosts.computeIfAbsent(key, Host::new);
+            }
+            host.leased++;
+            leases.incrementAndGet();
+            lease = new Lease(host);
+        }
+        closeClients(evicted);
+        return lease;
+    }
+
+    /**
+     * Forgets the hosts that have had no lease for the idle timeout.
+     * @return The clients of the forgotten hosts, which are closed once the pool is no longer locked.
+     */
+    private synchronized List<Object> evictIdle() {
+        List<Object> evicted = new ArrayList<>();
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        Iterator<Host> iterator = hosts.values().iterator();
+        while (iterator.hasNext()) {
+            Host host = iterator.next();
+            if (host.leased == 0 && now - host.releasedNanos > timeout) {
+                iterator.remove();
+                evictions.incrementAndGet();
+                if (host.client != null) {
+                    evicted.add(host.client);
+                }
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Closes the clients of evicted hosts along with their connections.
+     * HttpClient can be closed from Java 21 on. Before that its connections close once it is collected.
+     * @param clients The clients to close.
+     */
+    private static void closeClients(List<Object> clients) {
+        for (Object client : clients) {
+            if (client instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) client).close();
+                } catch (Exception ex) {
+                    Logger.getLogger(ConnectionPool.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+    }
+
+    private void release(Host host, boolean reusable) {
+        List<Object> evicted;
+        synchronized (this) {
+            host.leased--;
+            if (host.leased == 0) {
+                host.releasedNanos = System.nanoTime();
+            }
+            if (reusable) {
+                reusableReleases.incrementAndGet();
+            } else {
+                discardedReleases.incrementAndGet();
+            }
+            evicted = evictIdle();
+            notifyAll();
+        }
+        closeClients(evicted);
+    }
+
+    /**
+     * Sets the number of connections a single host may have leased at the same time.
+     * @param maxPerHost The maximum number of connections per host.
+     */
+    public synchronized void setMaxPerHost(int maxPerHost) {
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("The connection limit per host must be at least 1: " + maxPerHost);
+        }
+        this.maxPerHost = maxPerHost;
+        notifyAll();
+    }
+
+    public synchronized int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    public synchronized void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("The idle timeout cannot be negative: " + idleTimeoutMillis);
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public synchronized long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Returns the number of connections leased so far.
+     * @return The number of leases.
+     */
+    public long getLeases() {
+        return leases.get();
+    }
+
+    /**
+     * Returns the number of leases given back with their body read to the end, whose connection the transport may reuse.
+     * This is not the number of connections that were reused, which only the transport knows.
+     * @return The number of reusable releases.
+     */
+    public long getReusableReleases() {
+        return reusableReleases.get();
+    }
+
+    /**
+     * Returns the number of leases given back before their body ended, whose connection was broken off.
+     * @return The number of discarded releases.
+     */
+    public long getDiscardedReleases() {
+        return discardedReleases.get();
+    }
+
+    /**
+     * Returns the number of hosts forgotten after the idle timeout, whose clients were closed.
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of hosts that had a lease within the idle timeout.
+     * @return The number of hosts.
+     */
+    public int getHostCount() {
+        List<Object> evicted;
+        int count;
+        synchronized (this) {
+            evicted = evictIdle();
+            count = hosts.size();
+        }
+        closeClients(evicted);
+        return count;
+    }
+
+    /**
+     * The leases of a single host.
+     */
+    private static class Host {
+
+        private final String key;
+        private int leased;
+        //Time at which the last lease was given back.
+        private long releasedNanos;
+        private Object client;
+
+        private Host(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A connection leased to a single request.
+     */
+    public class Lease {
+
+        private final Host host;
+        private boolean released;
+
+        private Lease(Host host) {
+            this.host = host;
+        }
+
+        public String getKey() {
+            return host.key;
+        }
+
+        /**
+         * Returns the client that holds the connections of the host, creating it on first use.
+         * The client lives until the host has had no lease for the idle timeout.
+         * @param factory Creates the client.
+         * @return The client of the host.
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T getClient(Supplier<T> factory) {
+            synchronized (ConnectionPool.this) {
+                if (host.client == null) {
+                    host.client = factory.get();
+                }
+                return (T) host.client;
+            }
+        }
+
+        /**
+         * Gives the connection back. Releasing a lease more than once has no effect.
+         * @param reusable If the connection can carry another request, which is the case once its body was read to the end.
+         */
+        public void release(boolean reusable) {
+            synchronized (ConnectionPool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            ConnectionPool.this.release(host, reusable);
+        }
+    }
+}
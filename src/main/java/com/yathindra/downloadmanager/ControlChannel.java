@@ -0,0 +1,106 @@
+package com.yathindra.downloadmanager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries commands to a download or download part thread and their responses back.
+ * Senders get a future for the response instead of polling for it, and a worker waiting
+ * for commands is woken as soon as one is sent.
+ */
+public class ControlChannel {
+
+    /**
+     * A command that was sent and waits for its response.
+     */
+    public static class Message {
+        private final DownloadAction.Command command;
+        private final CompletableFuture<DownloadAction.Response> response = new CompletableFuture<>();
+
+        private Message(DownloadAction.Command command) {
+            this.command = command;
+        }
+
+        public DownloadAction.Command getCommand() {
+            return command;
+        }
+
+        /**
+         * Answers the command.
+         * @param r The response to give to the sender.
+         */
+        public void reply(DownloadAction.Response r) {
+            response.complete(r);
+        }
+    }
+
+    //Put in the queue to wake a waiting worker without a command.
+    private static final Message WAKE_UP = new Message(null);
+
+    private final LinkedBlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+
+    /**
+     * Sends a command.
+     * @param command The command to send.
+     * @return A future that completes with the response of the worker.
+     */
+    public CompletableFuture<DownloadAction.Response> send(DownloadAction.Command command) {
+        Message message = new Message(command);
+        messages.add(message);
+        return message.response;
+    }
+
+    /**
+     * Takes the next command without waiting.
+     * @return The next command, or null if there is none.
+     */
+    public Message poll() {
+        Message message;
+        while ((message = messages.poll()) == WAKE_UP) {
+            //A wake up is meaningless to a worker that is not waiting.
+        }
+        return message;
+    }
+
+    /**
+     * Waits for the next command.
+     * @param timeout The longest time to wait.
+     * @param unit The unit of the timeout.
+     * @return The next command, or null if the time ran out or the worker was woken up.
+     * @throws InterruptedException Exception is thrown if the thread is interrupted while waiting.
+     */
+    public Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Message message = messages.poll(timeout, unit);
+        return message == WAKE_UP ? null : message;
+    }
+
+    /**
+     * Wakes up a worker waiting in {@link #poll(long, TimeUnit)} so it can look at its state again.
+     */
+    public void wakeUp() {
+        messages.add(WAKE_UP);
+    }
+
+    /**
+     * Answers all commands left in the channel once the worker has ended.
+     * A worker that no longer runs is stopped, and pausing or resuming it has nothing left to do.
+     */
+    public void drain() {
+        Message message;
+        while ((message = poll()) != null) {
+            switch (message.getCommand()) {
+                case STOP:
+                    message.reply(DownloadAction.Response.STOPPED);
+                    break;
+                case PAUSE:
+                    message.reply(DownloadAction.Response.PAUSED);
+                    break;
+                case RESUME:
+                default:
+                    message.reply(DownloadAction.Response.RESUMED);
+                    break;
+            }
+        }
+    }
+}
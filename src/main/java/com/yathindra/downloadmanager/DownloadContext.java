@@ -0,0 +1,129 @@
+package com.yathindra.downloadmanager;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The services a pool shares between all of its downloads.
+ */
+public class DownloadContext {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 32;
+
+    private final ConnectionLimiter connectionLimiter = new ConnectionLimiter(DEFAULT_MAX_CONNECTIONS);
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(BandwidthLimiter.UNLIMITED);
+    private final DownloadMetrics metrics = new DownloadMetrics();
+    private final DownloadExecutor executor;
+    //Downloads run without a history until the pool gives them a journal.
+    private ProgressJournal journal = ProgressJournal.disabled();
+    //Each transport has its own pool since a connection of one cannot carry a request of the other.
+    private final Transport urlConnectionTransport = new UrlConnectionTransport(new ConnectionPool());
+    private final Transport httpClientTransport = new HttpClientTransport(new ConnectionPool());
+    private final RetryPolicy retryPolicy = new RetryPolicy();
+    //The circuit breakers are keyed by host like the connection pools, and shared by both transports.
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor. The execution mode is taken from the system properties.
+     */
+    public DownloadContext() {
+        this(DownloadExecutor.fromSystemProperty());
+    }
+
+    /**
+     * Constructor.
+     * @param executor The executor that creates the threads of downloads and parts.
+     */
+    public DownloadContext(DownloadExecutor executor) {
+        this.executor = executor;
+    }
+
+    public DownloadExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Returns the transport of the given type shared by all downloads that use it.
+     * @param type The type of the transport.
+     * @return The transport.
+     */
+    public Transport getTransport(TransportType type) {
+        return type == TransportType.HTTP_CLIENT ? httpClientTransport : urlConnectionTransport;
+    }
+
+    /**
+     * Sets the number of connections each transport may have open to a single host.
+     * @param maxPerHost The maximum number of connections per host.
+     */
+    public void setMaxConnectionsPerHost(int maxPerHost) {
+        urlConnectionTransport.getConnectionPool().setMaxPerHost(maxPerHost);
+        httpClientTransport.getConnectionPool().setMaxPerHost(maxPerHost);
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return urlConnectionTransport.getConnectionPool().getMaxPerHost();
+    }
+
+    /**
+     * Returns the limiter that caps the throughput of all downloads together.
+     * @return The global bandwidth limiter.
+     */
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * Returns the metrics of all downloads together.
+     * @return The metrics of the pool.
+     */
+    public DownloadMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the journal the downloads record their progress in.
+     * @return The progress journal.
+     */
+    public ProgressJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(ProgressJournal journal) {
+        this.journal = journal;
+    }
+
+    public ConnectionLimiter getConnectionLimiter() {
+        return connectionLimiter;
+    }
+
+    /**
+     * Returns the retry policy whose settings every download of the pool starts with.
+     * @return The retry policy of the pool.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Returns the circuit breaker of the host of a URL, shared by all downloads from that host.
+     * @param url The URL.
+     * @return The circuit breaker of the host.
+     */
+    public CircuitBreaker getCircuitBreaker(URL url) {
+        return circuitBreakers.computeIfAbsent(ConnectionPool.keyOf(url),
+                host -> new CircuitBreaker(host, CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_MILLIS));
+    }
+
+    /**
+     * Returns the number of times a circuit breaker of a host opened.
+     * @return The count over all hosts.
+     */
+    public long getCircuitBreakerOpenCount() {
+        long count = 0;
+        for (CircuitBreaker circuitBreaker : circuitBreakers.values()) {
+            count += circuitBreaker.getOpenCount();
+        }
+        return count;
+    }
+}
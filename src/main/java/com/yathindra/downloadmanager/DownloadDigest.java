@@ -0,0 +1,160 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Computes the SHA-256 checksum of a download while it downloads.
+ * SHA-256 cannot be put together from the checksums of the parts, so the file is hashed in order from a cursor.
+ * The part whose bytes arrive at the cursor hashes them as it writes them, which needs no extra read.
+ * Bytes that other parts wrote ahead of the cursor are read back from disk once the cursor reaches them,
+ * while they are most likely still cached. The part at the cursor then goes on hashing as it writes.
+ */
+public class DownloadDigest {
+
+    //The most bytes read back at once, so the download loop is not held up for long.
+    static final long CATCH_UP_BYTES = 32L * 1024 * 1024;
+    private static final int READ_SIZE = 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+    private long position;
+    private String checksum;
+
+    public DownloadDigest() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            //Every Java platform has to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the number of bytes from the start of the file that are hashed.
+     * @return The position of the cursor.
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * Hashes bytes that were written to the file, if they are at the cursor.
+     * Bytes before the cursor were hashed already and are skipped. Bytes after it are read back later.
+     * @param offset The position of the bytes in the file.
+     * @param buffer The buffer that holds the bytes.
+     * @param bufferOffset The offset of the bytes in the buffer.
+     * @param length The number of bytes.
+     * @return If the cursor moved.
+     */
+    public synchronized boolean update(long offset, byte[] buffer, int bufferOffset, int length) {
+        if (checksum != null || offset > position || offset + length <= position) {
+            return false;
+        }
+        int skip = (int) (position - offset);
+        digest.update(buffer, bufferOffset + skip, length - skip);
+        position = offset + length;
+        return true;
+    }
+
+    /**
+     * Reads back and hashes the bytes at the cursor that are on disk, as far as they are contiguous.
+     * @param downloadMetadata The metadata of the download.
+     * @param parts The parts of the download.
+     * @param limit The most bytes to read back.
+     * @throws IOException Exception is thrown if a file cannot be read.
+     */
+    public void catchUp(DownloadMetadata downloadMetadata, List<DownloadPartMetadata> parts, long limit) throws IOException {
+        List<DownloadPartMetadata> sorted = new ArrayList<>(parts);
+        sorted.sort(Comparator.comparingLong(partMetadata -> partMetadata.getPart().getStartByte()));
+        byte[] buffer = null;
+        long read = 0;
+        for (DownloadPartMetadata partMetadata : sorted) {
+            Part part = partMetadata.getPart();
+            long cursor = getPosition();
+            if (part.getEndByte() < cursor) {
+                continue;
+            }
+            if (part.getStartByte() > cursor) {
+                //The range before this part is not on disk yet.
+                return;
+            }
+            long available = part.getStartByte() + Math.min(partMetadata.getCompletedBytes(), part.getLength());
+            if (available > cursor) {
+                if (buffer == null) {
+                    buffer = new byte[READ_SIZE];
+                }
+                read += readBack(downloadMetadata, partMetadata, cursor, cursor + Math.min(available - cursor, limit - read), buffer);
+            }
+            if (read >= limit || getPosition() <= part.getEndByte()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the bytes of a part between the cursor and a position and hashes them.
+     * @return The number of bytes read.
+     */
+    private long readBack(DownloadMetadata downloadMetadata, DownloadPartMetadata partMetadata, long from, long to, byte[] buffer) throws IOException {
+        boolean partFile = downloadMetadata.getOutputMode() == OutputMode.PART_FILES;
+        String filename = partFile ? partMetadata.getFilename() : downloadMetadata.getFilename();
+        //A part file holds only its part, the target file holds the whole download.
+        long fileOffset = partFile ? partMetadata.getPart().getStartByte() : 0;
+        long read = 0;
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            FileChannel channel = file.getChannel();
+            long offset = from;
+            while (offset < to) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, to - offset));
+                int count = channel.read(chunk, offset - fileOffset);
+                if (count <= 0) {
+                    break;
+                }
+                //The part at the cursor may have hashed some of these bytes in the meantime.
+                update(offset, buffer, 0, count);
+                offset += count;
+                read += count;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Forgets everything hashed so far, for when bytes before the cursor were downloaded again.
+     * The file is hashed again from its start.
+     */
+    public synchronized void reset() {
+        digest.reset();
+        position = 0;
+        checksum = null;
+    }
+
+    /**
+     * Completes the checksum once every byte of the file is hashed.
+     * @param size The size of the file.
+     * @return The SHA-256 checksum as lowercase hex, or null if bytes before the end are not hashed.
+     */
+    public synchronized String finish(long size) {
+        if (checksum == null && position == size) {
+            checksum = toHex(digest.digest());
+        }
+        return checksum;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,69 @@
+package com.yathindra.downloadmanager;
+
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the threads that run downloads and download parts.
+ * The mode is chosen once at startup with the {@value #MODE_PROPERTY} system property.
+ * Virtual threads are only available in a build on Java 21 or later, which the jdk21 profile of the build selects.
+ */
+public class DownloadExecutor {
+
+    public static final String MODE_PROPERTY = "downloadmanager.execution";
+
+    private final ExecutionMode mode;
+
+    /**
+     * Constructor.
+     * @param mode The mode to run downloads in.
+     * @throws IllegalStateException Exception is thrown if virtual threads are requested but this build has none.
+     */
+    public DownloadExecutor(ExecutionMode mode) {
+        if (mode == ExecutionMode.VIRTUAL && !VirtualThreads.isAvailable()) {
+            throw new IllegalStateException("Virtual threads were requested, but this build of the download manager has none. Build it on Java 21 or later.");
+        }
+        this.mode = mode;
+    }
+
+    /**
+     * Creates the executor selected by the {@value #MODE_PROPERTY} system property, platform threads by default.
+     * @return The executor for this run of the application.
+     * @throws IllegalStateException Exception is thrown if virtual threads are selected but this build has none.
+     */
+    public static DownloadExecutor fromSystemProperty() {
+        String value = System.getProperty(MODE_PROPERTY, ExecutionMode.PLATFORM.name());
+        ExecutionMode mode;
+        try {
+            mode = ExecutionMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(DownloadExecutor.class.getName()).log(Level.WARNING, "Unknown execution mode " + value + ", using platform threads");
+            mode = ExecutionMode.PLATFORM;
+        }
+        return new DownloadExecutor(mode);
+    }
+
+    /**
+     * Returns the mode the threads are created in.
+     * @return The execution mode.
+     */
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Creates a thread that is not started yet.
+     * @param task The task the thread runs.
+     * @param name The name of the thread.
+     * @return The unstarted thread.
+     */
+    public Thread newThread(Runnable task, String name) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            return VirtualThreads.newThread(task, name);
+        }
+        Thread thread = new Thread(task);
+        thread.setName(name);
+        return thread;
+    }
+}
@@ -4,10 +4,13 @@ import javafx.application.Application;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.control.cell.ProgressBarTableCell;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
+import java.util.Arrays;
+
 public class DownloadManager extends Application {
 
     DownloadPool downloadPool = new DownloadPool();
@@ -60,16 +63,31 @@ public class DownloadManager extends Application {
         TableColumn<DownloadThread, String> acceleratedColumn = new TableColumn<>("Accelerated");
         acceleratedColumn.setMinWidth(50);
         acceleratedColumn.setCellValueFactory((TableColumn.CellDataFeatures<DownloadThread, String> download) -> download.getValue().getDownloadMetadata().getAcceleratedProperty());
+
+        TableColumn<DownloadThread, Double> progressColumn = new TableColumn<>("Progress");
+        progressColumn.setMinWidth(150);
+        progressColumn.setCellValueFactory((TableColumn.CellDataFeatures<DownloadThread, Double> download) -> download.getValue().getDownloadMetadata().getProgressProperty());
+        progressColumn.setCellFactory(ProgressBarTableCell.forTableColumn());
+
+        TableColumn<DownloadThread, Integer> connectionsColumn = new TableColumn<>("Connections");
+        connectionsColumn.setMinWidth(50);
+        connectionsColumn.setCellValueFactory((TableColumn.CellDataFeatures<DownloadThread, Integer> download) -> download.getValue().getDownloadMetadata().getConnectionsProperty());
         table = new TableView();
+        //The table lists the whole history, so every download gets a download thread. Their parts are only read once they start.
+        for (int downloadID : downloadPool.getDownloadIDs()) {
+            downloadPool.getDownloadThread(downloadID);
+        }
 
         table.setItems(downloadPool.getDownloadThreads());
-        table.getColumns().addAll(idColumn, urlColumn, filenameColumn, sizeColumn, statusColumn, acceleratedColumn);
+        table.getColumns().addAll(idColumn, urlColumn, filenameColumn, sizeColumn, statusColumn, progressColumn, connectionsColumn, acceleratedColumn);
 
     }
 
     public void setButtons() {
         newDownload.setOnAction(eh -> {
-            downloadPool.newDownload(urlInput.getText());
+            //Several URLs separated by spaces are mirrors of the same file.
+            String[] urls = urlInput.getText().trim().split("\\s+");
+            downloadPool.newDownload(urls[0], Arrays.copyOfRange(urls, 1, urls.length));
             urlInput.clear();
         });
 
@@ -5,26 +5,61 @@ import javafx.beans.property.SimpleObjectProperty;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class DownloadMetadata{
     private final SimpleObjectProperty<URL> url;
+    //Other URLs that serve the same file. Parts request their ranges from them as well.
+    private SimpleObjectProperty<List<URL>> mirrors=new SimpleObjectProperty<>(new ArrayList<>());
     private final SimpleObjectProperty<Integer> downloadID;
     private final SimpleObjectProperty<String> filename;
-    private static final int parts=8;
+    private static final int minConnections=1;
+    private static final int initialConnections=2;
+    private static final int maxConnections=32;
     private final SimpleObjectProperty<Long> size=new SimpleObjectProperty<>();
     private static final int timeout=10000;
+    private static final long minSegmentSize=1024*1024;
     private final SimpleObjectProperty<Boolean> accelerated=new SimpleObjectProperty<>(false);
     private final SimpleObjectProperty<DownloadStatus> status=new SimpleObjectProperty<>(DownloadStatus.NEW);
+    //The number of connections chosen for the download from its measured throughput.
+    private SimpleObjectProperty<Integer> connections=new SimpleObjectProperty<>(initialConnections);
+    private SimpleObjectProperty<TransportType> transport=new SimpleObjectProperty<>(TransportType.URL_CONNECTION);
+    private SimpleObjectProperty<Long> rateLimit=new SimpleObjectProperty<>(BandwidthLimiter.UNLIMITED);
+    private SimpleObjectProperty<OutputMode> outputMode=new SimpleObjectProperty<>(OutputMode.PART_FILES);
+    //The SHA-256 checksum the file must have, as lowercase hex. Null if none was given.
+    private SimpleObjectProperty<String> expectedChecksum=new SimpleObjectProperty<>();
+    //The SHA-256 checksum of the downloaded file as lowercase hex, once the download is completed.
+    private SimpleObjectProperty<String> checksum=new SimpleObjectProperty<>();
+    //The validators of the version of the file the download fetches, as the server sent them. Null if it sent none.
+    private SimpleObjectProperty<String> etag=new SimpleObjectProperty<>();
+    private SimpleObjectProperty<String> lastModified=new SimpleObjectProperty<>();
+    private static final String CHECKSUM_FRAGMENT="sha256=";
+    //Progress of the current phase, downloading or joining. It is not saved with the download.
+    private transient SimpleObjectProperty<Double> progress=new SimpleObjectProperty<>(0.0);
 
     /**
      * Constructor.
+     * A URL that ends with a {@code #sha256=<hex>} fragment gives the checksum the file must have.
+     * The fragment is removed from the URL of the download.
      *
      * @param url The Download URL
      * @param ID The unique integer that represents the download
      * @throws MalformedURLException If URL is improper exception is thrown.
      */
     public DownloadMetadata(String url,int ID) throws MalformedURLException{
-        this.url=new SimpleObjectProperty<>(new URL(url));
+        URL parsed=new URL(url);
+        String fragment=parsed.getRef();
+        if(fragment!=null && fragment.toLowerCase().startsWith(CHECKSUM_FRAGMENT)){
+            try{
+                setExpectedChecksum(fragment.substring(CHECKSUM_FRAGMENT.length()));
+            }catch(IllegalArgumentException ex){
+                throw new MalformedURLException(ex.getMessage());
+            }
+            parsed=new URL(parsed.getProtocol(),parsed.getHost(),parsed.getPort(),parsed.getFile());
+        }
+        this.url=new SimpleObjectProperty<>(parsed);
         this.downloadID=new SimpleObjectProperty(ID);
         String file=String.valueOf(ID)+"_"+Paths.get(this.url.getValue().getPath()).getFileName().toString();
         this.filename=new SimpleObjectProperty<>(file);
@@ -46,6 +81,37 @@ public class DownloadMetadata{
         return url;
     }
 
+    /**
+     * Returns the mirrors of the download.
+     * Downloads saved before mirrors existed have none.
+     * @return The URLs of the mirrors, without the URL of the download.
+     */
+    public List<URL> getMirrors() {
+        return Collections.unmodifiableList(getMirrorsProperty().getValue());
+    }
+
+    public SimpleObjectProperty<List<URL>> getMirrorsProperty() {
+        if (mirrors == null) {
+            mirrors = new SimpleObjectProperty<>(new ArrayList<>());
+        }
+        return mirrors;
+    }
+
+    /**
+     * Adds a URL that serves the same file as the URL of the download.
+     * A mirror is only used once its size and validators were checked against the URL of the download.
+     * @param mirror The URL of the mirror.
+     * @throws MalformedURLException If URL is improper exception is thrown.
+     */
+    public void addMirror(String mirror) throws MalformedURLException {
+        URL parsed=new URL(mirror);
+        List<URL> urls=new ArrayList<>(getMirrorsProperty().getValue());
+        if(!parsed.equals(getUrl()) && !urls.contains(parsed)){
+            urls.add(parsed);
+            getMirrorsProperty().setValue(urls);
+        }
+    }
+
     /**
      * Returns the download ID of the download.
      * @return Download ID
@@ -69,6 +135,10 @@ public class DownloadMetadata{
         return filename;
     }
 
+    public void setFilename(String filename) {
+        this.filename.setValue(filename);
+    }
+
     public long getSize() {
         return size.getValue();
     }
@@ -107,7 +177,232 @@ public class DownloadMetadata{
     public int getTimeout(){
         return timeout;
     }
+    /**
+     * Returns the number of connections the download currently uses.
+     * @return The number of parts downloaded at the same time
+     */
     public int getParts(){
-        return parts;
+        return getConnectionsProperty().getValue();
+    }
+
+    public SimpleObjectProperty<Integer> getConnectionsProperty(){
+        //Downloads saved before the connection count was adaptive used a fixed number of parts.
+        if (connections == null) {
+            connections = new SimpleObjectProperty<>(initialConnections);
+        }
+        return connections;
+    }
+
+    public void setConnections(int c){
+        getConnectionsProperty().setValue(c);
+    }
+
+    public int getMinConnections(){
+        return minConnections;
+    }
+
+    public int getMaxConnections(){
+        return maxConnections;
+    }
+
+    /**
+     * Returns the smallest range a part may be left with after its remaining range is split.
+     * @return The minimum segment size in bytes
+     */
+    public long getMinSegmentSize(){
+        return minSegmentSize;
+    }
+
+    /**
+     * Returns how the parts of the download are written to disk.
+     * Downloads saved before output modes existed use part files.
+     * @return The output mode of the download
+     */
+    public OutputMode getOutputMode() {
+        if (outputMode == null || outputMode.getValue() == null) {
+            return OutputMode.PART_FILES;
+        }
+        return outputMode.getValue();
+    }
+
+    public SimpleObjectProperty<OutputMode> getOutputModeProperty() {
+        if (outputMode == null) {
+            outputMode = new SimpleObjectProperty<>(OutputMode.PART_FILES);
+        }
+        return outputMode;
+    }
+
+    public void setOutputMode(OutputMode mode) {
+        getOutputModeProperty().setValue(mode);
+    }
+
+    public double getProgress() {
+        return getProgressProperty().getValue();
+    }
+
+    /**
+     * Returns the progress of the current phase as a fraction between 0 and 1.
+     * @return The observable progress of the download
+     */
+    public SimpleObjectProperty<Double> getProgressProperty() {
+        if (progress == null) {
+            progress = new SimpleObjectProperty<>(status.getValue() == DownloadStatus.COMPLETED ? 1.0 : 0.0);
+        }
+        return progress;
+    }
+
+    public void setProgress(double p) {
+        getProgressProperty().setValue(p);
+    }
+
+    /**
+     * Returns the HTTP engine the download uses.
+     * Downloads saved before transports were selectable use URL connections.
+     * @return The transport type of the download
+     */
+    public TransportType getTransport() {
+        if (transport == null || transport.getValue() == null) {
+            return TransportType.URL_CONNECTION;
+        }
+        return transport.getValue();
+    }
+
+    public SimpleObjectProperty<TransportType> getTransportProperty() {
+        if (transport == null) {
+            transport = new SimpleObjectProperty<>(TransportType.URL_CONNECTION);
+        }
+        return transport;
+    }
+
+    public void setTransport(TransportType type) {
+        getTransportProperty().setValue(type);
+    }
+
+    /**
+     * Returns the bandwidth limit of the download.
+     * Downloads saved before limits existed are unlimited.
+     * @return The limit in bytes per second, or {@link BandwidthLimiter#UNLIMITED}.
+     */
+    public long getRateLimit() {
+        if (rateLimit == null || rateLimit.getValue() == null) {
+            return BandwidthLimiter.UNLIMITED;
+        }
+        return rateLimit.getValue();
+    }
+
+    public SimpleObjectProperty<Long> getRateLimitProperty() {
+        if (rateLimit == null) {
+            rateLimit = new SimpleObjectProperty<>(BandwidthLimiter.UNLIMITED);
+        }
+        return rateLimit;
+    }
+
+    /**
+     * Sets the bandwidth limit of the download. A running download follows the new limit at once.
+     * @param bytesPerSecond The limit in bytes per second, or {@link BandwidthLimiter#UNLIMITED}.
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        getRateLimitProperty().setValue(bytesPerSecond);
+    }
+
+    /**
+     * Returns the checksum the downloaded file must have.
+     * @return The SHA-256 checksum as lowercase hex, or null if the file is not checked.
+     */
+    public String getExpectedChecksum() {
+        return getExpectedChecksumProperty().getValue();
+    }
+
+    public SimpleObjectProperty<String> getExpectedChecksumProperty() {
+        if (expectedChecksum == null) {
+            expectedChecksum = new SimpleObjectProperty<>();
+        }
+        return expectedChecksum;
+    }
+
+    /**
+     * Sets the checksum the downloaded file must have. A download whose file has another checksum fails.
+     * @param sha256 The SHA-256 checksum in hex, or null to not check the file.
+     * @throws IllegalArgumentException If the checksum is not 64 hex digits.
+     */
+    public void setExpectedChecksum(String sha256) {
+        if (sha256 != null && !sha256.matches("[0-9a-fA-F]{64}")) {
+            throw new IllegalArgumentException("Not a SHA-256 checksum: " + sha256);
+        }
+        getExpectedChecksumProperty().setValue(sha256 == null ? null : sha256.toLowerCase());
+    }
+
+    /**
+     * Returns the checksum of the downloaded file.
+     * @return The SHA-256 checksum as lowercase hex, or null if the download is not completed.
+     */
+    public String getChecksum() {
+        return getChecksumProperty().getValue();
+    }
+
+    public SimpleObjectProperty<String> getChecksumProperty() {
+        if (checksum == null) {
+            checksum = new SimpleObjectProperty<>();
+        }
+        return checksum;
+    }
+
+    public void setChecksum(String sha256) {
+        getChecksumProperty().setValue(sha256);
+    }
+
+    public String getEtag() {
+        return getEtagProperty().getValue();
+    }
+
+    public SimpleObjectProperty<String> getEtagProperty() {
+        if (etag == null) {
+            etag = new SimpleObjectProperty<>();
+        }
+        return etag;
+    }
+
+    public String getLastModified() {
+        return getLastModifiedProperty().getValue();
+    }
+
+    public SimpleObjectProperty<String> getLastModifiedProperty() {
+        if (lastModified == null) {
+            lastModified = new SimpleObjectProperty<>();
+        }
+        return lastModified;
+    }
+
+    /**
+     * Sets the validators of the version of the file the download fetches.
+     * @param etag The ETag header of the server, or null.
+     * @param lastModified The Last-Modified header of the server, or null.
+     */
+    public synchronized void setValidators(String etag, String lastModified) {
+        getEtagProperty().setValue(etag);
+        getLastModifiedProperty().setValue(lastModified);
+    }
+
+    /**
+     * Returns the validator that is sent as If-Range with every range request of the download.
+     * Downloads saved before validators were stored have none.
+     * @return The validator, or null if the server gave none.
+     */
+    public synchronized String getValidator() {
+        return toValidator(getEtag(), getLastModified());
+    }
+
+    /**
+     * Chooses the validator for If-Range from the headers of a response.
+     * A strong ETag is preferred. A weak ETag may not be sent as If-Range, so the Last-Modified date is used then.
+     * @param etag The ETag header, or null.
+     * @param lastModified The Last-Modified header, or null.
+     * @return The validator, or null if there is none.
+     */
+    static String toValidator(String etag, String lastModified) {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
     }
 }
@@ -0,0 +1,221 @@
+package com.yathindra.downloadmanager;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what a download or a whole pool transfers and how often it fails.
+ * The counters are striped adders, so the parts record into them without contending with each other and
+ * the metrics can stay on all the time. A download's metrics have the metrics of its pool as their parent,
+ * and everything recorded for the download is also recorded for the pool.
+ */
+public class DownloadMetrics {
+
+    //The shortest time between two samples of the transfer rate, so that frequent readers do not add noise.
+    private static final long RATE_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final DownloadMetrics parent;
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder firstByteNanos = new LongAdder();
+    private final LongAdder firstByteCount = new LongAdder();
+    private final LongAdder joinNanos = new LongAdder();
+    private final LongAdder joinCount = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder invalidatedBytes = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder hedgeSavedNanos = new LongAdder();
+    private final TransferRate rate = new TransferRate();
+    private long lastSampleNanos;
+
+    public DownloadMetrics() {
+        this(null);
+    }
+
+    /**
+     * Constructor.
+     * @param parent The metrics that also receive everything recorded here, or null.
+     */
+    public DownloadMetrics(DownloadMetrics parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Records transferred bytes.
+     * @param count The number of bytes.
+     */
+    public void addBytes(long count) {
+        bytes.add(count);
+        if (parent != null) {
+            parent.addBytes(count);
+        }
+    }
+
+    /**
+     * Records a failure. The failure is counted by the simple name of its class.
+     * @param cause The exception that caused the failure.
+     */
+    public void recordError(Throwable cause) {
+        errors.computeIfAbsent(cause.getClass().getSimpleName(), name -> new LongAdder()).increment();
+        if (parent != null) {
+            parent.recordError(cause);
+        }
+    }
+
+    /**
+     * Records that a failed part is going to try again.
+     */
+    public void recordRetry() {
+        retries.increment();
+        if (parent != null) {
+            parent.recordRetry();
+        }
+    }
+
+    /**
+     * Records the time from sending a request to receiving the first byte of its body.
+     * @param nanos The time to the first byte in nanoseconds.
+     */
+    public void recordTimeToFirstByte(long nanos) {
+        firstByteNanos.add(nanos);
+        firstByteCount.increment();
+        if (parent != null) {
+            parent.recordTimeToFirstByte(nanos);
+        }
+    }
+
+    /**
+     * Records the time it took to join the parts of a download.
+     * @param nanos The duration of the join in nanoseconds.
+     */
+    public void recordJoin(long nanos) {
+        joinNanos.add(nanos);
+        joinCount.increment();
+        if (parent != null) {
+            parent.recordJoin(nanos);
+        }
+    }
+
+    /**
+     * Records that a part threw away its bytes because they were downloaded from another version of the file.
+     * @param bytes The number of bytes thrown away.
+     */
+    public void recordInvalidation(long bytes) {
+        invalidations.increment();
+        invalidatedBytes.add(bytes);
+        if (parent != null) {
+            parent.recordInvalidation(bytes);
+        }
+    }
+
+    /**
+     * Records that the remaining range of a lagging part was requested again on another connection.
+     */
+    public void recordHedge() {
+        hedges.increment();
+        if (parent != null) {
+            parent.recordHedge();
+        }
+    }
+
+    /**
+     * Records that a part completed with the bytes of its hedge before it got them itself.
+     * @param savedNanos The time the part would still have taken at the pace it kept during the race in nanoseconds.
+     */
+    public void recordHedgeWon(long savedNanos) {
+        hedgesWon.increment();
+        hedgeSavedNanos.add(savedNanos);
+        if (parent != null) {
+            parent.recordHedgeWon(savedNanos);
+        }
+    }
+
+    public long getTotalBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Returns the smoothed transfer rate. The rate is sampled when it is read, at most twice a second.
+     * @return The rate in bytes per second.
+     */
+    public synchronized double getBytesPerSecond() {
+        long now = System.nanoTime();
+        if (lastSampleNanos == 0 || now - lastSampleNanos >= RATE_SAMPLE_NANOS) {
+            lastSampleNanos = now;
+            return rate.update(bytes.sum(), now);
+        }
+        return rate.getBytesPerSecond();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public long getInvalidatedBytes() {
+        return invalidatedBytes.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    /**
+     * Returns the time the hedges that won saved, as measured from the progress of their parts during the race.
+     * @return The saved time in milliseconds.
+     */
+    public double getHedgeSavedMillis() {
+        return hedgeSavedNanos.sum() / 1e6;
+    }
+
+    /**
+     * Returns the number of failures of each cause.
+     * @return The counts keyed by the simple class name of the exception.
+     */
+    public Map<String, Long> getErrors() {
+        Map<String, Long> counts = new TreeMap<>();
+        errors.forEach((name, count) -> counts.put(name, count.sum()));
+        return counts;
+    }
+
+    public long getErrorCount() {
+        long count = 0;
+        for (LongAdder adder : errors.values()) {
+            count += adder.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the average time to the first byte of a response.
+     * @return The average in milliseconds, or 0 if no response was received yet.
+     */
+    public double getAverageTimeToFirstByteMillis() {
+        long count = firstByteCount.sum();
+        return count == 0 ? 0 : firstByteNanos.sum() / 1e6 / count;
+    }
+
+    /**
+     * Returns the total time spent joining parts.
+     * @return The total join time in milliseconds.
+     */
+    public double getJoinMillis() {
+        return joinNanos.sum() / 1e6;
+    }
+
+    public long getJoinCount() {
+        return joinCount.sum();
+    }
+}
@@ -0,0 +1,41 @@
+package com.yathindra.downloadmanager;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Decides where the parts of a download write their data.
+ */
+public interface DownloadOutput extends Closeable {
+
+    /**
+     * Opens a sink for a download part positioned after its completed bytes.
+     * @param partMetadata The metadata of the part to write.
+     * @return The sink the part writes to.
+     * @throws IOException Exception is thrown if the destination could not be opened.
+     */
+    PartSink openPart(DownloadPartMetadata partMetadata) throws IOException;
+
+    /**
+     * Tells if the parts have to be joined into the target file once they complete.
+     * @return If a joining phase is required.
+     */
+    boolean requiresJoin();
+
+    /**
+     * Creates the output for a download according to its output mode.
+     * @param downloadMetadata The metadata of the download.
+     * @return The output of the download.
+     */
+    static DownloadOutput forMode(DownloadMetadata downloadMetadata) {
+        switch (downloadMetadata.getOutputMode()) {
+            case POSITIONAL:
+                return new PositionalOutput(downloadMetadata);
+            case MAPPED:
+                return new MappedOutput(downloadMetadata);
+            case PART_FILES:
+            default:
+                return new PartFileOutput();
+        }
+    }
+}
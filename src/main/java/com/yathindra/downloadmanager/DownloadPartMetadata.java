@@ -3,6 +3,8 @@ package com.yathindra.downloadmanager;
 import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import javafx.beans.property.SimpleObjectProperty;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class DownloadPartMetadata {
     public SimpleObjectProperty<Integer> partID;
     public SimpleObjectProperty<DownloadStatus> status = new SimpleObjectProperty<>(DownloadStatus.STARTING);
@@ -14,8 +16,18 @@ public class DownloadPartMetadata {
     public DownloadMetadata downloadMetadata;
 
     public SimpleObjectProperty<Part> part;
+    //The live count of the completed bytes. The worker updates it without allocating and readers take snapshots of it.
+    @XStreamOmitField
+    private transient AtomicLong completed = new AtomicLong();
+    //The snapshot of the completed bytes that is saved. It is taken when the part is written out.
     public SimpleObjectProperty<Long> completedBytes = new SimpleObjectProperty<>(0L);
+    //The completed bytes that were known to be on disk at the last checkpoint of the part.
+    public SimpleObjectProperty<Long> checkpointedBytes = new SimpleObjectProperty<>(0L);
     public SimpleObjectProperty<Integer> retries = new SimpleObjectProperty<>(0);
+    //The ID of the part this part was split off from. It is null for the parts the download started with.
+    public SimpleObjectProperty<Integer> parentPartID = new SimpleObjectProperty<>();
+    //The validator of the version of the file the completed bytes were downloaded from. Null if it is not known.
+    public SimpleObjectProperty<String> validator = new SimpleObjectProperty<>();
 
 
     public DownloadPartMetadata(DownloadMetadata downloadMetadata, int partID, Part part) {
@@ -25,6 +37,30 @@ public class DownloadPartMetadata {
         this.filename = downloadMetadata.getFilename() + ".part" + String.valueOf(partID);
     }
 
+    /**
+     * Constructor for a part split off from the remaining range of another part.
+     * @param downloadMetadata The metadata of the download.
+     * @param partID The ID of the new part.
+     * @param part The range of the new part.
+     * @param parentPartID The ID of the part the range was taken from.
+     */
+    public DownloadPartMetadata(DownloadMetadata downloadMetadata, int partID, Part part, int parentPartID) {
+        this(downloadMetadata, partID, part);
+        this.parentPartID.setValue(parentPartID);
+    }
+
+    public int getPartID() {
+        return partID.getValue();
+    }
+
+    /**
+     * Returns the number of bytes of the part that are not downloaded yet.
+     * @return The remaining bytes of the part
+     */
+    public long getRemainingBytes() {
+        return Math.max(0, getPart().getLength() - getCompletedBytes());
+    }
+
     public Part getPart() {
         return part.getValue();
     }
@@ -42,11 +78,31 @@ public class DownloadPartMetadata {
     }
 
     public void setCompletedBytes(long b) {
-        completedBytes.setValue(b);
+        completed.set(b);
     }
 
+    /**
+     * Returns a snapshot of the completed bytes, safe to read from any thread.
+     * @return The number of bytes of the part that are downloaded.
+     */
     public long getCompletedBytes() {
-        return completedBytes.getValue();
+        return completed.get();
+    }
+
+    public void setCheckpointedBytes(long b) {
+        getCheckpointedBytesProperty().setValue(b);
+    }
+
+    public long getCheckpointedBytes() {
+        return getCheckpointedBytesProperty().getValue();
+    }
+
+    public SimpleObjectProperty<Long> getCheckpointedBytesProperty() {
+        //Downloads saved before checkpoints existed were flushed when they were saved.
+        if (checkpointedBytes == null) {
+            checkpointedBytes = new SimpleObjectProperty<>(getCompletedBytes());
+        }
+        return checkpointedBytes;
     }
 
     public void incrementRetries() {
@@ -57,5 +113,47 @@ public class DownloadPartMetadata {
         return filename;
     }
 
+    public String getValidator() {
+        return validator == null ? null : validator.getValue();
+    }
+
+    public void setValidator(String v) {
+        if (validator == null) {
+            validator = new SimpleObjectProperty<>();
+        }
+        validator.setValue(v);
+    }
+
+    /**
+     * Checks if the completed bytes were downloaded from another version of the file than the download now fetches.
+     * Bytes whose version is not known are kept.
+     * @return If the completed bytes of the part must be downloaded again.
+     */
+    public boolean isStale() {
+        String partValidator = getValidator();
+        return getCompletedBytes() > 0 && partValidator != null && !partValidator.equals(downloadMetadata.getValidator());
+    }
+
+    /**
+     * Called by XStream before the part is saved. Stores a snapshot of the live count.
+     * @return This part.
+     */
+    private Object writeReplace() {
+        completedBytes.setValue(completed.get());
+        return this;
+    }
+
+    /**
+     * Called by XStream after the part is loaded. Starts the live count from the saved snapshot.
+     * @return This part.
+     */
+    private Object readResolve() {
+        Long saved = completedBytes == null ? null : completedBytes.getValue();
+        completed = new AtomicLong(saved == null ? 0 : saved);
+        if (completedBytes == null) {
+            completedBytes = new SimpleObjectProperty<>(0L);
+        }
+        return this;
+    }
 
 }
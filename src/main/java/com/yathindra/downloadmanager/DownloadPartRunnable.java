@@ -2,32 +2,68 @@ package com.yathindra.downloadmanager;
 
 import javafx.beans.property.SimpleObjectProperty;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.SocketTimeoutException;
-import java.net.URLConnection;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class DownloadPartRunnable implements Runnable {
 
+    //Number of bytes written between two checkpoints of the completed bytes.
+    static final long CHECKPOINT_INTERVAL = 32L * 1024 * 1024;
+
     private final SimpleObjectProperty<DownloadPartMetadata> metadata;
-    private final ConcurrentLinkedQueue queueCommand;
-    private final ConcurrentLinkedQueue queueResponse;
+    private final ControlChannel channel;
+    private final DownloadOutput output;
+    private final Transport transport;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final DownloadMetrics metrics;
+    private final DownloadDigest digest;
+    private final RetryPolicy retryPolicy;
+    private final MirrorSet mirrors;
+    //The source of the current request, or null between requests.
+    private volatile Mirror source;
+    //The number of failures in a row since the part last received a byte.
+    private int attempts;
+    //The time at which a failed part retries.
+    private long retryAtNanos;
+    //The failure the part gave up on, or null.
+    private volatile IOException failure;
+    //The time the current request was sent, until the first byte of its body arrives.
+    private long requestNanos;
+    private volatile CompletableFuture<Part> pendingSplit;
+    private volatile boolean parkRequested;
+    private volatile HedgedRequest pendingHedge;
+    //The response the part is reading, which a hedge that wins closes to break off a read that waits for data.
+    private volatile TransportResponse response;
 
     /**
      * Constructor for the DownloadPart object
      * @param metadata DownloadPartMetadata object that contains the metadata of the download part.
-     * @param queueCommand A queue object used to communicate with threads. This object gathers commands from thread.
-     * @param queueResponse A queue object used to communicate with threads. This object gives responses to thread.
+     * @param channel The channel the part receives commands from and answers them through.
+     * @param output The output of the download which the part writes to.
+     * @param transport The transport the part requests its range with.
+     * @param bandwidthLimiter The limiter the part shares with the other parts of the download.
+     * @param metrics The metrics of the download the part records into.
+     * @param digest The checksum of the download the part hashes its bytes into, or null.
+     * @param retryPolicy The retry policy of the download, whose budget the part shares with the other parts.
+     * @param mirrors The sources of the download, which choose where each request of the part goes.
      */
-    public DownloadPartRunnable(DownloadPartMetadata metadata, ConcurrentLinkedQueue queueCommand, ConcurrentLinkedQueue queueResponse) {
-        this.queueCommand = queueCommand;
-        this.queueResponse = queueResponse;
+    public DownloadPartRunnable(DownloadPartMetadata metadata, ControlChannel channel, DownloadOutput output, Transport transport, BandwidthLimiter bandwidthLimiter, DownloadMetrics metrics, DownloadDigest digest, RetryPolicy retryPolicy, MirrorSet mirrors) {
+        this.channel = channel;
         this.metadata = new SimpleObjectProperty<>(metadata);
+        this.output = output;
+        this.transport = transport;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.metrics = metrics;
+        this.digest = digest;
+        this.retryPolicy = retryPolicy;
+        this.mirrors = mirrors;
 
     }
 
@@ -48,7 +84,7 @@ public class DownloadPartRunnable implements Runnable {
      * Pause the download.
      */
     public void pause() {
-        if (getMetadata().getStatus() == DownloadStatus.DOWNLOADING) {
+        if (getMetadata().getStatus() == DownloadStatus.DOWNLOADING || getMetadata().getStatus() == DownloadStatus.ERROR) {
             getMetadata().setStatus(DownloadStatus.PAUSED);
         }
     }
@@ -64,7 +100,7 @@ public class DownloadPartRunnable implements Runnable {
      * Stop the download.
      */
     public void stop() {
-        if (getMetadata().getStatus() == DownloadStatus.PAUSED || getMetadata().getStatus() == DownloadStatus.PAUSED) {
+        if (getMetadata().getStatus() != DownloadStatus.COMPLETED) {
             getMetadata().setStatus(DownloadStatus.STOPPED);
         }
     }
@@ -77,63 +113,424 @@ public class DownloadPartRunnable implements Runnable {
         return getMetadata().getFilename();
     }
 
+    /**
+     * Returns the failure the part gave up on after it used up its retries.
+     * @return The last failure, or null if the part did not give up.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns the source the part is downloading from.
+     * @return The source of the current request, or null if the part has no request open.
+     */
+    public Mirror getSource() {
+        return source;
+    }
+
     /**
      * Checks if download is complete
      * @return If download has completed
      */
     public boolean isComplete() {
-        return ((getMetadata().getCompletedBytes() + getMetadata().getPart().getStartByte()) == getMetadata().getPart().getEndByte());
+        return getMetadata().getRemainingBytes() == 0;
+    }
+
+    /**
+     * Asks the part to give the second half of its remaining range to a new part.
+     * The split is done by the thread of the part at the next chunk boundary so it never races with a write.
+     * @return A future that gives the split off range, or null if the remaining range is too small to split.
+     */
+    public CompletableFuture<Part> requestSplit() {
+        CompletableFuture<Part> split = new CompletableFuture<>();
+        if (getStatus() == DownloadStatus.COMPLETED) {
+            split.complete(null);
+            return split;
+        }
+        pendingSplit = split;
+        channel.wakeUp();
+        return split;
+    }
+
+    /**
+     * Checks if a split was requested.
+     * @return If a split is waiting to be handled.
+     */
+    public boolean isSplitPending() {
+        return pendingSplit != null;
+    }
+
+    /**
+     * Asks the part to give up its connection at the next chunk boundary.
+     * The part keeps its progress and waits as QUEUED until it is started again.
+     */
+    public void requestPark() {
+        parkRequested = true;
+        channel.wakeUp();
+    }
+
+    /**
+     * Checks if the part was asked to give up its connection and has not done so yet.
+     * @return If a park is waiting to be handled.
+     */
+    public boolean isParkPending() {
+        return parkRequested;
+    }
+
+    /**
+     * Parks the part if it was asked to.
+     * @return If the part was parked.
+     */
+    private boolean handlePark() {
+        if (!parkRequested) {
+            return false;
+        }
+        parkRequested = false;
+        getMetadata().setStatus(DownloadStatus.QUEUED);
+        return true;
+    }
+
+    /**
+     * Hands the part the bytes of a hedged request that received its remaining range first.
+     * The part writes them from its own thread at the next chunk boundary, so they never race with a write.
+     * The response of the part is closed, so a part whose read waits on a stalled connection takes the bytes
+     * at once instead of after its read timeout. A URLConnection only lets the close through once its read returns.
+     * @param hedge The hedge that holds the bytes.
+     */
+    public void offerHedge(HedgedRequest hedge) {
+        pendingHedge = hedge;
+        channel.wakeUp();
+        TransportResponse current = response;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ex) {
+                Logger.getLogger(DownloadPartRunnable.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Writes the bytes of a hedge that won from the current position of the part to its end.
+     * A hedge that does not cover that range any longer, because the part was invalidated since, is dropped.
+     * @param sink The sink of the part.
+     * @return If the part completed with the bytes of the hedge.
+     * @throws IOException Exception is thrown if the sink cannot be written.
+     */
+    private boolean handleHedge(PartSink sink) throws IOException {
+        HedgedRequest hedge = pendingHedge;
+        if (hedge == null) {
+            return false;
+        }
+        pendingHedge = null;
+        Part part = getMetadata().getPart();
+        long completedBytes = getMetadata().getCompletedBytes();
+        long position = part.getStartByte() + completedBytes;
+        if (position < hedge.getStartByte() || position > part.getEndByte() || part.getEndByte() > hedge.getEndByte()) {
+            return false;
+        }
+        int offset = (int) (position - hedge.getStartByte());
+        int length = (int) (part.getEndByte() + 1 - position);
+        sink.write(hedge.getData(), offset, length);
+        if (digest != null) {
+            digest.update(position, hedge.getData(), offset, length);
+        }
+        getMetadata().setCompletedBytes(completedBytes + length);
+        metrics.addBytes(length);
+        checkpoint(sink);
+        hedge.taken(length);
+        return true;
+    }
+
+    /**
+     * Completes the part with the bytes of a hedge that won while the part was not copying, like while it waits to retry.
+     */
+    private void completeFromHedge() {
+        if (pendingHedge == null) {
+            return;
+        }
+        try (PartSink sink = output.openPart(getMetadata())) {
+            if (handleHedge(sink)) {
+                getMetadata().setStatus(DownloadStatus.COMPLETED);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(DownloadPartRunnable.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Handles a requested split from the thread of the part.
+     * The remaining range is halved as long as both halves are at least the minimum segment size.
+     * A part that streams a download without ranges is never split.
+     */
+    private void handleSplit() {
+        CompletableFuture<Part> split = pendingSplit;
+        if (split == null) {
+            return;
+        }
+        pendingSplit = null;
+        Part part = getMetadata().getPart();
+        long remaining = getMetadata().getRemainingBytes();
+        if (!getMetadata().downloadMetadata.getAccelerated() || remaining < 2 * getMetadata().downloadMetadata.getMinSegmentSize()) {
+            split.complete(null);
+            return;
+        }
+        long position = part.getStartByte() + getMetadata().getCompletedBytes();
+        split.complete(part.splitAt(position + remaining / 2));
     }
 
     /**
      * Sets up the connection to the download file.
-     * @return A stream object that represents the connection to the download file.
+     * The range is requested with the validator of the download as If-Range, so a server whose file changed
+     * answers with the new file and the change is noticed before a byte of it is written into the old one.
+     * A mirror that answers with another file, or does not have the file, is dropped instead, since the URL
+     * of the download defines the file, and the range is requested again from another source.
+     * A part that streams a download without ranges starts over when the server sends the file from its start,
+     * and takes the size of the download from the first answer that tells it. If the server answers with a range
+     * after all, the download turns into a ranged download whose part can be split.
+     * @param source The source to request the range from.
+     * @return The response of the server whose body holds the remaining range of the part.
+     * @throws RangesIgnoredException Exception is thrown if a server that announced ranges sent the whole file.
+     * @throws IOException Exception is thrown if the server cannot be reached or does not answer with the range.
+     */
+    private TransportResponse getConnectionStream(Mirror source) throws IOException {
+        DownloadMetadata downloadMetadata = getMetadata().downloadMetadata;
+        long startByte = getMetadata().getPart().getStartByte() + getMetadata().getCompletedBytes();
+        String validator = source.getValidator();
+        CircuitBreaker circuitBreaker = source.getCircuitBreaker();
+        circuitBreaker.acquire();
+        TransportResponse response;
+        try {
+            response = transport.get(source.getUrl(), startByte, getMetadata().getPart().getEndByte(), validator, downloadMetadata.getTimeout());
+        } catch (IOException ex) {
+            //A host that answers with a client error is reachable, so only failures worth retrying count against it.
+            if (RetryPolicy.isRetryable(ex)) {
+                circuitBreaker.recordFailure(ex instanceof HttpStatusException ? ((HttpStatusException) ex).getRetryAfterMillis() : -1);
+            } else {
+                circuitBreaker.recordSuccess();
+                if (!source.isPrimary()) {
+                    source.reject();
+                    throw new IOException("Mirror " + source + " does not serve the file of the download", ex);
+                }
+            }
+            throw ex;
+        }
+        circuitBreaker.recordSuccess();
+        retryPolicy.recordRequest();
+        String current = response.getValidator();
+        if (!source.isPrimary()) {
+            if (response.getResourceLength() != downloadMetadata.getSize() || (response.getStatusCode() == 200 && startByte > 0)
+                    || (validator != null && current != null && !current.equals(validator))) {
+                response.close();
+                source.reject();
+                throw new IOException("Mirror " + source + " no longer serves the file of the download");
+            }
+        } else if (validator == null && current != null) {
+            //A download saved without validators takes those of the first answer, so its parts agree on one version.
+            downloadMetadata.setValidators(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+        } else if (validator != null && current != null && !current.equals(validator)) {
+            //The other parts notice that the download moved on to the new version and invalidate themselves.
+            downloadMetadata.setValidators(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+            long length = response.getResourceLength();
+            if (length >= 0 && downloadMetadata.getSize() >= 0 && length != downloadMetadata.getSize()) {
+                //The download fails as a whole once it sees the new size, since its parts were divided from the old one.
+                long size = downloadMetadata.getSize();
+                downloadMetadata.setSize(length);
+                response.close();
+                throw new SourceChangedException(downloadMetadata.getUrl().toString(), size, length);
+            }
+            //Bytes of the new version may only be appended to a part that holds none of the old version.
+            if (getMetadata().getCompletedBytes() > 0 || (response.getStatusCode() == 200 && startByte > 0)) {
+                response.close();
+                invalidate();
+                throw new SourceChangedException(downloadMetadata.getUrl().toString(), validator, current);
+            }
+        }
+        Part part = getMetadata().getPart();
+        if (!downloadMetadata.getAccelerated()) {
+            //A stream that is requested again without range support starts over from the start of the file.
+            if (response.getStatusCode() == 200 && startByte > 0) {
+                invalidate();
+            }
+            long length = response.getResourceLength();
+            if (length >= 0 && downloadMetadata.getSize() < 0) {
+                downloadMetadata.setSize(length);
+                part.setEndByte(length - 1);
+            }
+            if (response.getStatusCode() == 206 && length >= 0) {
+                downloadMetadata.setAccelerated(true);
+            }
+        } else if (response.getStatusCode() == 200 && (startByte > 0 || part.getEndByte() < downloadMetadata.getSize() - 1)
+                && (validator == null || current == null || current.equals(validator))) {
+            //A server that ignores the range sends the whole file, which does not fit the range of the part.
+            //The whole file of a new version at the start of the file is a part of the new version instead.
+            response.close();
+            downloadMetadata.setAccelerated(false);
+            throw new RangesIgnoredException(source.getUrl().toString(), part);
+        }
+        //A server that answered the range without a validator did so because the one that was sent matched.
+        //A mirror was checked to serve the version of the download, whatever its own validator is.
+        getMetadata().setValidator(source.isPrimary() ? (current != null ? current : validator) : downloadMetadata.getValidator());
+        return response;
+    }
+
+    /**
+     * Throws away the completed bytes of the part, which were downloaded from another version of the file.
+     * The part downloads its whole range again, and the checksum is computed again from the start of the file.
+     * Must not be called while the part is downloading.
+     */
+    public void invalidate() {
+        long completedBytes = getMetadata().getCompletedBytes();
+        if (completedBytes == 0) {
+            return;
+        }
+        getMetadata().setCompletedBytes(0);
+        getMetadata().setCheckpointedBytes(0);
+        getMetadata().setValidator(null);
+        if (getMetadata().getStatus() == DownloadStatus.COMPLETED) {
+            getMetadata().setStatus(DownloadStatus.QUEUED);
+        }
+        if (digest != null) {
+            digest.reset();
+        }
+        metrics.recordInvalidation(completedBytes);
+    }
+
+    /**
+     * Fills the buffer with the bytes that can be read without waiting longer than a single read.
+     * @param inputStream The stream from which to read
+     * @param buffer The buffer to fill
+     * @param length The maximum number of bytes to read
+     * @return The number of bytes read, or -1 if the end of the stream was reached.
      * @throws IOException
      */
-    private BufferedInputStream getConnectionStream() throws IOException {
-        //Setting up the connection.
-        URLConnection connection = getMetadata().downloadMetadata.getUrl().openConnection();
-        connection.setRequestProperty("Range", "bytes=" + String.valueOf(getMetadata().getPart().getStartByte() + getMetadata().getCompletedBytes()) + "-" + String.valueOf(getMetadata().getPart().getEndByte()));
-        connection.setConnectTimeout(5000);
-        connection.setReadTimeout(getMetadata().downloadMetadata.getTimeout());
-        connection.connect();
+    private int fillChunk(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int filled = inputStream.read(buffer, 0, length);
+        if (filled <= 0) {
+            return filled;
+        }
+        //Only keep reading while the data is already buffered so that a slow link does not delay commands.
+        while (filled < length && inputStream.available() > 0) {
+            int read = inputStream.read(buffer, filled, length - filled);
+            if (read == -1) {
+                break;
+            }
+            filled += read;
+        }
+        return filled;
+    }
 
-        BufferedInputStream inputStream = new BufferedInputStream(connection.getInputStream());
-        return inputStream;
+    /**
+     * Makes everything written to the sink durable and records the completed bytes as checkpointed.
+     * @param sink The sink of the download part.
+     * @throws IOException Exception is thrown if the sink could not be flushed.
+     */
+    private void checkpoint(PartSink sink) throws IOException {
+        long completedBytes = getMetadata().getCompletedBytes();
+        sink.flush();
+        getMetadata().setCheckpointedBytes(completedBytes);
     }
 
     /**
-     * Copies content from one stream to the other.
+     * Copies content from the stream to the sink in chunks taken from the shared buffer pool.
+     * Progress is reported and commands are checked once per chunk.
+     * The sink is checkpointed every {@link #CHECKPOINT_INTERVAL} bytes and whenever the copy ends.
+     * The copy stops at the end of the range of the part, which may shrink while copying when the part is split,
+     * or at the end of the stream if the size of the download is not known.
+     * Under a bandwidth limit the part waits for commands on its channel between chunks instead of reading on,
+     * so a throttled part still pauses and stops at once.
      * @param inputStream The stream from which to copy
-     * @param fileStream The stream to which to copy
+     * @param sink The sink to which to copy
      * @return If copy was sucessful returns true. If stop or pause command was issued returns false.
-     * @throws IOException
+     * @throws IOException Exception is thrown if the sink cannot be written, or if the stream ends before the range of the part.
      */
-    private boolean copyToStream(BufferedInputStream inputStream, BufferedOutputStream fileStream) throws IOException {
-        int byt;
+    boolean copyToStream(InputStream inputStream, PartSink sink) throws IOException {
         long completedBytes = getMetadata().getCompletedBytes();
-
-        while ((byt = inputStream.read()) != -1) {
-            fileStream.write(byt);
-            completedBytes++;
-            getMetadata().setCompletedBytes(completedBytes);
-
-            if (!queueCommand.isEmpty()) {
-                if (queueCommand.peek().equals(DownloadAction.Command.PAUSE)) {
-                    pause();
-                    queueCommand.poll();
-                    queueResponse.add(DownloadAction.Response.PAUSED);
-                    return false;
-                } else if (queueCommand.peek().equals(DownloadAction.Command.STOP)) {
-                    stop();
-                    //I am not adding a poll here because it will stop execution in run thread as well.
-                    queueResponse.add(DownloadAction.Response.STOPPED);
+        Mirror mirror = source;
+        byte[] buffer = BufferPool.shared().acquire();
+        try {
+            int read;
+            while (true) {
+                handleSplit();
+                if (handleHedge(sink)) {
+                    break;
+                }
+                if (parkRequested) {
+                    checkpoint(sink);
+                    handlePark();
                     return false;
                 }
+                long remaining = getMetadata().getRemainingBytes();
+                if (remaining == 0) {
+                    break;
+                }
+                int chunkSize = bandwidthLimiter.getChunkSize(buffer.length);
+                if ((read = fillChunk(inputStream, buffer, (int) Math.min(chunkSize, remaining))) == -1) {
+                    if (getMetadata().getPart().isEndUnknown()) {
+                        //A stream of unknown length ends with the file, which gives the download its size.
+                        getMetadata().getPart().setEndByte(getMetadata().getPart().getStartByte() + completedBytes - 1);
+                        getMetadata().downloadMetadata.setSize(getMetadata().getPart().getStartByte() + completedBytes);
+                        break;
+                    }
+                    //The bytes received so far are kept and the rest of the range is requested again.
+                    checkpoint(sink);
+                    throw new EOFException("Connection closed with " + remaining + " bytes of " + getMetadata().getPart() + " left");
+                }
+                if (requestNanos != 0) {
+                    metrics.recordTimeToFirstByte(System.nanoTime() - requestNanos);
+                    requestNanos = 0;
+                    attempts = 0;
+                    if (mirror != null) {
+                        mirror.recordSuccess();
+                    }
+                }
+                sink.write(buffer, 0, read);
+                if (digest != null) {
+                    digest.update(getMetadata().getPart().getStartByte() + completedBytes, buffer, 0, read);
+                }
+                completedBytes += read;
+                getMetadata().setCompletedBytes(completedBytes);
+                metrics.addBytes(read);
+                if (mirror != null) {
+                    mirror.addBytes(read);
+                }
+                if (completedBytes - getMetadata().getCheckpointedBytes() >= CHECKPOINT_INTERVAL) {
+                    checkpoint(sink);
+                }
+
+                long throttle = bandwidthLimiter.reserve(read);
+                ControlChannel.Message message;
+                try {
+                    message = throttle > 0 ? channel.poll(throttle, TimeUnit.NANOSECONDS) : channel.poll();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttled");
+                }
+                if (message != null) {
+                    switch (message.getCommand()) {
+                        case PAUSE:
+                            checkpoint(sink);
+                            pause();
+                            message.reply(DownloadAction.Response.PAUSED);
+                            return false;
+                        case STOP:
+                            checkpoint(sink);
+                            stop();
+                            message.reply(DownloadAction.Response.STOPPED);
+                            return false;
+                        case RESUME:
+                        default:
+                            message.reply(DownloadAction.Response.RESUMED);
+                            break;
+                    }
+                }
             }
+            checkpoint(sink);
+            return true;
+        } finally {
+            BufferPool.shared().release(buffer);
         }
-        return true;
-
     }
 
     /**
@@ -142,32 +539,73 @@ public class DownloadPartRunnable implements Runnable {
      * @throws SocketTimeoutException
      */
     private void download() throws IOException, SocketTimeoutException {
+        //Bytes of an older version than another part has seen are downloaded again before anything else.
+        if (getMetadata().isStale()) {
+            invalidate();
+        }
+        if (isComplete()) {
+            getMetadata().setStatus(DownloadStatus.COMPLETED);
+            return;
+        }
         getMetadata().setStatus(DownloadStatus.DOWNLOADING);
-        boolean append = (getMetadata().getCompletedBytes() != 0);
 
-        BufferedInputStream inputStream = getConnectionStream();
-        BufferedOutputStream fileStream = new BufferedOutputStream(new FileOutputStream(getMetadata().filename, append));
-        try {
-            if (copyToStream(inputStream, fileStream)) {
+        requestNanos = System.nanoTime();
+        Mirror mirror = mirrors.choose(null);
+        source = mirror;
+        //The response is closed even if the sink cannot be opened, so its pooled connection is never leaked.
+        try (TransportResponse response = getConnectionStream(mirror);
+                PartSink sink = output.openPart(getMetadata())) {
+            this.response = response;
+            if (copyToStream(response.getBody(), sink)) {
                 getMetadata().setStatus(DownloadStatus.COMPLETED);
             }
+        } catch (CircuitOpenException | RangesIgnoredException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            //A read that a hedge broke off is no failure of the source, and the part completes with the bytes of the hedge.
+            if (pendingHedge != null) {
+                completeFromHedge();
+                if (getMetadata().getStatus() == DownloadStatus.COMPLETED) {
+                    return;
+                }
+            }
+            mirror.recordFailure();
+            throw ex;
         } finally {
-            inputStream.close();
-            fileStream.close();
+            response = null;
+            source = null;
+            mirror.requestEnded();
         }
 
     }
 
     /**
      * Starts the download of a file. Also handles all the exceptions gracefully.
+     * A failed part waits before it retries as long as its retry policy says, and gives up once the policy
+     * allows no more retries. While the circuit breaker of its host is open the part waits without trying.
      */
     public void safeDownload() {
         try {
             download();
+        } catch (CircuitOpenException ex) {
+            getMetadata().setStatus(DownloadStatus.ERROR);
+            retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ex.getWaitMillis());
+        } catch (RangesIgnoredException ex) {
+            //The download replaces its parts with a single stream, so the part gives up its connection and waits.
+            Logger.getLogger(DownloadPartRunnable.class.getName()).log(Level.WARNING, ex.getMessage());
+            getMetadata().setStatus(DownloadStatus.QUEUED);
         } catch (IOException ex) {
             getMetadata().setStatus(DownloadStatus.ERROR);
             getMetadata().incrementRetries();
+            metrics.recordError(ex);
             Logger.getLogger(DownloadPartRunnable.class.getName()).log(Level.SEVERE, null, ex);
+            attempts++;
+            if (!retryPolicy.tryRetry(attempts, ex)) {
+                failure = ex;
+                return;
+            }
+            metrics.recordRetry();
+            retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryPolicy.getDelayMillis(attempts, ex));
         }
     }
 
@@ -178,38 +616,70 @@ public class DownloadPartRunnable implements Runnable {
      */
     @Override
     public void run() {
+        parkRequested = false;
+        try {
+            downloadUntilDone();
+        } finally {
+            //A split that arrives after the part finished has nothing left to split.
+            CompletableFuture<Part> split = pendingSplit;
+            if (split != null) {
+                split.complete(null);
+            }
+            channel.drain();
+        }
+    }
+
+    /**
+     * Downloads the part, retrying on errors and following commands until it completes or is stopped.
+     * Between downloads the thread blocks on its channel, so a paused part uses no CPU and wakes up
+     * as soon as a command, a split or a park arrives.
+     */
+    private void downloadUntilDone() {
         if (DownloadStatus.COMPLETED == getMetadata().getStatus()) {
             return;
         }
         safeDownload();
         //Infinite loop until the downloadstatus is completed 
         while (getMetadata().getStatus() != DownloadStatus.COMPLETED) {
-            //Retry if there is any errors.
-            if (getMetadata().getStatus() == DownloadStatus.ERROR) {
-                safeDownload();
+            //Splits, parks and hedges that arrive while no data is copied are safe to handle here.
+            handleSplit();
+            completeFromHedge();
+            DownloadStatus status = getMetadata().getStatus();
+            if (status == DownloadStatus.COMPLETED || status == DownloadStatus.QUEUED || status == DownloadStatus.STOPPED || failure != null || handlePark()) {
+                return;
             }
+            ControlChannel.Message message;
             try {
-                Thread.sleep(200);
+                //A failed part waits before it retries. A paused part waits for a command.
+                long wait = status == DownloadStatus.ERROR ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(retryAtNanos - System.nanoTime())) : Long.MAX_VALUE;
+                message = channel.poll(wait, TimeUnit.MILLISECONDS);
             } catch (InterruptedException ex) {
-                Logger.getLogger(DownloadPartRunnable.class.getName()).log(Level.SEVERE, null, ex);
-            }
-
-            if (!queueCommand.isEmpty()) {
-                DownloadAction.Command command = (DownloadAction.Command) queueCommand.poll();
-                switch (command) {
-                    case STOP:
-                        stop();
-                        queueResponse.add(DownloadAction.Response.STOPPED);
-                        return;
-                    case RESUME:
-                        resume();
-                        queueResponse.add(DownloadAction.Response.RESUMED);
-                        safeDownload();
-                        break;
-                    default:
-                        break;
+                Thread.currentThread().interrupt();
+                stop();
+                return;
+            }
+            if (message == null) {
+                //Retry if there is any errors, once the retry is due. A wake up before that only looks at splits and parks.
+                if (getMetadata().getStatus() == DownloadStatus.ERROR && System.nanoTime() - retryAtNanos >= 0) {
+                    safeDownload();
                 }
-
+                continue;
+            }
+            switch (message.getCommand()) {
+                case STOP:
+                    stop();
+                    message.reply(DownloadAction.Response.STOPPED);
+                    return;
+                case RESUME:
+                    resume();
+                    message.reply(DownloadAction.Response.RESUMED);
+                    safeDownload();
+                    break;
+                case PAUSE:
+                default:
+                    pause();
+                    message.reply(DownloadAction.Response.PAUSED);
+                    break;
             }
         }
     }
@@ -2,22 +2,21 @@ package com.yathindra.downloadmanager;
 
 import javafx.beans.property.SimpleObjectProperty;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
-
 public class DownloadPartThread {
 
     public Thread thread;
     public SimpleObjectProperty<DownloadPartRunnable> downloadPart;
-    public ConcurrentLinkedQueue queueCommand;
-    public ConcurrentLinkedQueue queueResponse;
+    public ControlChannel channel;
     public SimpleObjectProperty<DownloadPartMetadata> downloadPartMetadata;
+    public final TransferRate rate = new TransferRate();
+    //The time the thread of the part was last started.
+    public long startNanos;
 
 
-    public DownloadPartThread(DownloadPartRunnable downloadPart, DownloadPartMetadata downloadPartMetadata, ConcurrentLinkedQueue queueCommand, ConcurrentLinkedQueue queueResponse) {
+    public DownloadPartThread(DownloadPartRunnable downloadPart, DownloadPartMetadata downloadPartMetadata, ControlChannel channel) {
         this.downloadPart = new SimpleObjectProperty<>(downloadPart);
         this.downloadPartMetadata = new SimpleObjectProperty<>(downloadPartMetadata);
-        this.queueCommand = queueCommand;
-        this.queueResponse = queueResponse;
+        this.channel = channel;
         
     }
     
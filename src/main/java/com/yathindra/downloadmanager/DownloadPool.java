@@ -3,61 +3,367 @@ package com.yathindra.downloadmanager;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class DownloadPool {
 
+    //Guards the list, the indexes and the next ID. The journal writes snapshots of the list from its own thread.
     private final ObservableList<DownloadThread> downloadThreads = FXCollections.observableArrayList();
+    //The downloads by their ID, for lookups that do not scan the list.
+    private final Map<Integer, DownloadThread> downloadIndex = new HashMap<>();
+    //The downloads of the history that nothing asked for since they were loaded, as encoded in the history, by their ID.
+    //They get a download thread and their parts only once they are needed.
+    private final Map<Integer, byte[]> historyIndex = new HashMap<>();
+    //IDs are never reused, so files, MBeans and journal records of different downloads cannot be mixed up.
+    private int nextDownloadID;
     DownloadStorage downloadStorage = new DownloadStorage();
+    private final ProgressJournal journal = new ProgressJournal(ProgressJournal.pathFor(downloadStorage.getPath()));
+    private OutputMode defaultOutputMode = OutputMode.PART_FILES;
+    private TransportType defaultTransport = TransportType.URL_CONNECTION;
+    //The directory new downloads are saved to. Null saves them to the working directory.
+    private String downloadDirectory;
+    private final DownloadContext context = new DownloadContext();
+    private final DownloadScheduler scheduler = new DownloadScheduler();
+    private static final String MBEAN_DOMAIN = "com.yathindra.downloadmanager";
+    private static final AtomicInteger poolCount = new AtomicInteger();
+    //Tells the MBeans of pools in the same JVM apart.
+    private final String poolName = String.valueOf(poolCount.getAndIncrement());
     
     public DownloadPool() {
+        registerMBean("type=DownloadPool,name=" + poolName, new PoolStats(this));
         downloadStorage.load();
+        //Progress made since the history was last saved is in the journal, as far as it reached the disk.
+        int replayed = journal.replay(downloadStorage.getDownloads());
+        if (downloadStorage.getDownloads() != null) {
+            for (DownloadInfo downloadInfo : downloadStorage.getDownloads()) {
+                ProgressJournal.reconcile(downloadInfo);
+            }
+        }
+        context.setJournal(journal);
         this.load();
+        try {
+            journal.open(this::writeSnapshot);
+            if (replayed > 0) {
+                journal.compact();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(DownloadPool.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Registers an MBean with the platform MBean server so it can be read with standard JMX tools.
+     * @param properties The key properties of the name of the MBean.
+     * @param mbean The MBean.
+     */
+    private void registerMBean(String properties, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(mbean, new ObjectName(MBEAN_DOMAIN + ":" + properties));
+        } catch (JMException ex) {
+            Logger.getLogger(DownloadPool.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void unregisterMBean(String properties) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            Logger.getLogger(DownloadPool.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private String getDownloadMBeanProperties(DownloadThread downloadThread) {
+        return "type=Download,pool=" + poolName + ",id=" + downloadThread.getDownloadMetadata().getDownloadID();
+    }
+
+    /**
+     * Adds a download to the pool.
+     * @param downloadThread The download thread object.
+     */
+    private void addDownloadThread(DownloadThread downloadThread) {
+        int downloadID = downloadThread.getDownloadMetadata().getDownloadID();
+        synchronized (downloadThreads) {
+            //The list stays in the order of the IDs when a download of the history gets its download thread late.
+            int index = downloadThreads.size();
+            while (index > 0 && downloadThreads.get(index - 1).getDownloadMetadata().getDownloadID() > downloadID) {
+                index--;
+            }
+            downloadThreads.add(index, downloadThread);
+            downloadIndex.put(downloadID, downloadThread);
+            nextDownloadID = Math.max(nextDownloadID, downloadID + 1);
+        }
+    }
+
+    /**
+     * Returns a copy of the downloads, which stays the same while other threads add or remove downloads.
+     * @return The downloads of the pool.
+     */
+    private List<DownloadThread> copyDownloadThreads() {
+        synchronized (downloadThreads) {
+            return new ArrayList<>(downloadThreads);
+        }
+    }
+
+    /**
+     * Returns a download by its ID.
+     * @param downloadID The ID of the download.
+     * @return The download thread object, or null if the pool has no download with the ID.
+     */
+    public DownloadThread getDownloadThread(int downloadID) {
+        synchronized (downloadThreads) {
+            DownloadThread downloadThread = downloadIndex.get(downloadID);
+            byte[] record = historyIndex.get(downloadID);
+            if (downloadThread != null || record == null) {
+                return downloadThread;
+            }
+            //Only the metadata is kept, and the parts are decoded again when the download starts.
+            try {
+                downloadThread = new DownloadThread(HistoryFormat.decode(record).downloadMetadata, record);
+            } catch (IOException ex) {
+                Logger.getLogger(DownloadPool.class.getName()).log(Level.SEVERE, null, ex);
+                return null;
+            }
+            historyIndex.remove(downloadID);
+            addDownloadThread(downloadThread);
+            return downloadThread;
+        }
+    }
+
+    /**
+     * Returns the IDs of all downloads of the pool, including those of the history that have no download thread yet.
+     * @return The IDs in the order the downloads were added.
+     */
+    public List<Integer> getDownloadIDs() {
+        synchronized (downloadThreads) {
+            TreeSet<Integer> downloadIDs = new TreeSet<>(downloadIndex.keySet());
+            downloadIDs.addAll(historyIndex.keySet());
+            return new ArrayList<>(downloadIDs);
+        }
+    }
+
+    /**
+     * Returns the number of downloads of the pool, including those of the history that have no download thread yet.
+     * @return The number of downloads.
+     */
+    public int getDownloadCount() {
+        synchronized (downloadThreads) {
+            return downloadIndex.size() + historyIndex.size();
+        }
     }
 
     /**
-     * This saves the current download list to the disk.
+     * This saves the current download list to the disk and starts the journal over.
      */
     public void save(){
-        downloadStorage.clear();
-        for (DownloadThread downloadThread:downloadThreads){
-            DownloadInfo download;
-            download=new DownloadInfo(downloadThread.getDownloadMetadata(),downloadThread.download.getValue().getPartMetadatas());
-            downloadStorage.addDownload(download);
+        try {
+            journal.compact();
+        } catch (IOException ex) {
+            Logger.getLogger(DownloadPool.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current download list to the disk.
+     * Downloads that have no download thread are written as they were loaded, without decoding them.
+     */
+    private void writeSnapshot(){
+        List<DownloadThread> downloads;
+        //Sorted by ID, which is the order the downloads were added in.
+        Map<Integer, byte[]> records = new TreeMap<>();
+        synchronized (downloadThreads) {
+            downloads = new ArrayList<>(downloadThreads);
+            records.putAll(historyIndex);
         }
-        downloadStorage.save();
+        try {
+            for (DownloadThread downloadThread : downloads) {
+                records.put(downloadThread.getDownloadMetadata().getDownloadID(), encode(downloadThread.getDownloadMetadata(), downloadThread.getPartMetadatas()));
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(DownloadPool.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        downloadStorage.saveEncoded(new ArrayList<>(records.values()));
+    }
+
+    /**
+     * Encodes a download for the history. The parts of a completed download are not needed again.
+     * @param downloadMetadata The metadata of the download.
+     * @param partMetadatas The parts of the download.
+     * @return The encoded download.
+     * @throws IOException Exception is thrown if the download cannot be encoded.
+     */
+    private static byte[] encode(DownloadMetadata downloadMetadata, List<DownloadPartMetadata> partMetadatas) throws IOException {
+        boolean completed = downloadMetadata.getStatus() == DownloadStatus.COMPLETED;
+        return HistoryFormat.encode(new DownloadInfo(downloadMetadata, completed ? new ArrayList<>() : partMetadatas));
     }
 
     /**
      * This loads the download list from the disk.
-     * Creates a DownloadPool object that contains all downloads
+     * Creates a DownloadPool object that contains all downloads.
+     * Only downloads that were running when the pool last ended are started. The others are kept as encoded
+     * in the history and get a download thread only when they are asked for with {@link #getDownloadThread(int)}.
      *  @return Returns the DownloadPool object that contains all downloads from disk
      */
     public DownloadPool load() {
         if(downloadStorage.getDownloads()==null){return this;}
         for (DownloadInfo downloadInfo : downloadStorage.getDownloads()) {
-            
-                DownloadMetadata downloadMetadata=downloadInfo.downloadMetadata;
-                List<DownloadPartMetadata> downloadPartMetadata=downloadInfo.downloadPartMetadata;
-                ConcurrentLinkedQueue queueCommand = new ConcurrentLinkedQueue();
-                ConcurrentLinkedQueue queueResponse = new ConcurrentLinkedQueue();
-                DownloadRunnable downloadRunnable = new DownloadRunnable(downloadMetadata, queueCommand, queueResponse, downloadPartMetadata);
-//                download.loadDownloadPartMetadatas(downloadPartMetadata);
-                Thread thread = new Thread(downloadRunnable);
-                DownloadThread downloadThread = new DownloadThread(downloadMetadata, downloadRunnable, thread, queueCommand, queueResponse);
-                downloadThreads.add(downloadThread);
-                thread.start();
-
-            
+            DownloadMetadata downloadMetadata = downloadInfo.downloadMetadata;
+            byte[] record;
+            try {
+                record = encode(downloadMetadata, downloadInfo.downloadPartMetadata);
+            } catch (IOException ex) {
+                Logger.getLogger(DownloadPool.class.getName()).log(Level.SEVERE, null, ex);
+                continue;
+            }
+            int downloadID = downloadMetadata.getDownloadID();
+            if (wasRunning(downloadMetadata.getStatus())) {
+                DownloadThread downloadThread = new DownloadThread(downloadMetadata, record);
+                addDownloadThread(downloadThread);
+                startDownload(downloadThread);
+            } else {
+                synchronized (downloadThreads) {
+                    historyIndex.put(downloadID, record);
+                    nextDownloadID = Math.max(nextDownloadID, downloadID + 1);
+                }
+            }
         }
+        //The history is held by the index and the downloads now.
+        downloadStorage.clear();
         return this;
     }
 
+    /**
+     * Checks if a download with the given status was running or waiting to run, so it was cut off when the pool ended.
+     * @param status The saved status of the download.
+     * @return If the download has to be started again.
+     */
+    private static boolean wasRunning(DownloadStatus status) {
+        switch (status) {
+            case COMPLETED:
+            case PAUSED:
+            case STOPPED:
+            case ERROR:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Creates the runnable and the thread of a download from its parts and queues it in the scheduler.
+     * The thread frees its slot in the scheduler when it ends.
+     * @param downloadThread The download thread object, whose thread is not running.
+     */
+    private void startDownload(DownloadThread downloadThread) {
+        DownloadMetadata downloadMetadata = downloadThread.getDownloadMetadata();
+        ControlChannel channel = new ControlChannel();
+        DownloadRunnable downloadRunnable = new DownloadRunnable(downloadMetadata, channel, context, downloadThread.getPartMetadatas());
+        downloadThread.channel = channel;
+        downloadThread.thread = context.getExecutor().newThread(() -> {
+            try {
+                downloadRunnable.run();
+            } finally {
+                scheduler.finished(downloadThread);
+            }
+        }, downloadRunnable.toString());
+        downloadThread.download.setValue(downloadRunnable);
+        downloadThread.clearSavedRecord();
+        //A download started again gets fresh metrics.
+        unregisterMBean(getDownloadMBeanProperties(downloadThread));
+        registerMBean(getDownloadMBeanProperties(downloadThread), new DownloadStats(downloadRunnable));
+        scheduler.submit(downloadThread);
+    }
+
+    /**
+     * Sets the maximum number of downloads that run at the same time. Queued downloads start if slots free up.
+     * @param maxActiveDownloads The maximum number of running downloads.
+     */
+    public void setMaxActiveDownloads(int maxActiveDownloads) {
+        scheduler.setMaxActiveDownloads(maxActiveDownloads);
+    }
+
+    public int getMaxActiveDownloads() {
+        return scheduler.getMaxActiveDownloads();
+    }
+
+    /**
+     * Sets the maximum number of connections open over all downloads.
+     * @param maxConnections The maximum number of connections.
+     */
+    public void setMaxConnections(int maxConnections) {
+        context.getConnectionLimiter().setLimit(maxConnections);
+    }
+
+    public int getMaxConnections() {
+        return context.getConnectionLimiter().getLimit();
+    }
+
+    /**
+     * Sets the maximum number of connections open to a single host over all downloads.
+     * @param maxConnectionsPerHost The maximum number of connections per host.
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        context.setMaxConnectionsPerHost(maxConnectionsPerHost);
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return context.getMaxConnectionsPerHost();
+    }
+
+    /**
+     * Sets how often the progress of downloads is synced to disk. Progress made within the last interval may be lost in a crash.
+     * @param syncIntervalMillis The sync interval in milliseconds.
+     */
+    public void setJournalSyncInterval(long syncIntervalMillis) {
+        journal.setSyncIntervalMillis(syncIntervalMillis);
+    }
+
+    public long getJournalSyncInterval() {
+        return journal.getSyncIntervalMillis();
+    }
+
+    /**
+     * Sets the maximum throughput of all downloads together. Running downloads follow the new limit at once.
+     * @param bytesPerSecond The limit in bytes per second, or {@link BandwidthLimiter#UNLIMITED}.
+     */
+    public void setMaxBandwidth(long bytesPerSecond) {
+        context.getBandwidthLimiter().setBytesPerSecond(bytesPerSecond);
+    }
+
+    public long getMaxBandwidth() {
+        return context.getBandwidthLimiter().getBytesPerSecond();
+    }
+
+    public DownloadScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public DownloadContext getContext() {
+        return context;
+    }
+
     /**
      * Checks if a URL is valid.
      * @param url String representation of the URL
@@ -72,68 +378,95 @@ public class DownloadPool {
         }
     }
     
-    public ObservableList<DownloadThread> getDownloadThreads() {
-        return downloadThreads;
+    public OutputMode getDefaultOutputMode() {
+        return defaultOutputMode;
     }
 
     /**
-     * Waits until response of a command is recieved.
-     * @param downloadThread The thread to which the command is issued
-     * @param response The response from the command.
+     * Sets the output mode used by new downloads.
+     * @param defaultOutputMode The output mode of downloads started after the call.
      */
-    private void waitUntilCommand(DownloadThread downloadThread,DownloadAction.Response response){
-        if (!downloadThread.thread.isAlive()) {
-            return;
-        }
-        while (true) {
-            if(!downloadThread.queueResponse.isEmpty()){
-                 if(downloadThread.queueResponse.peek().equals(response)){
-                     downloadThread.queueResponse.poll();
-                     break;
-                 }
-            }
-        }
+    public void setDefaultOutputMode(OutputMode defaultOutputMode) {
+        this.defaultOutputMode = defaultOutputMode;
+    }
+
+    public TransportType getDefaultTransport() {
+        return defaultTransport;
+    }
+
+    /**
+     * Sets the HTTP engine used by new downloads.
+     * @param defaultTransport The transport of downloads started after the call.
+     */
+    public void setDefaultTransport(TransportType defaultTransport) {
+        this.defaultTransport = defaultTransport;
+    }
+
+    public String getDownloadDirectory() {
+        return downloadDirectory;
+    }
+
+    /**
+     * Sets the directory new downloads are saved to.
+     * @param downloadDirectory The directory, or null for the working directory.
+     */
+    public void setDownloadDirectory(String downloadDirectory) {
+        this.downloadDirectory = downloadDirectory;
+    }
+
+    public ObservableList<DownloadThread> getDownloadThreads() {
+        return downloadThreads;
     }
 
     /**
-     * Issues a command to the thread.
+     * Issues a command to the thread without waiting for it to be carried out.
      * @param downloadThread The object to issue a command to
      * @param command The command to be issued.
+     * @param response The response to give right away if the thread is not running.
+     * @return A future that completes with the response of the thread.
      */
-    private void issueCommand(DownloadThread downloadThread, DownloadAction.Command command){
-        if (!downloadThread.thread.isAlive()) {
-            return;
+    private CompletableFuture<DownloadAction.Response> issueCommand(DownloadThread downloadThread, DownloadAction.Command command, DownloadAction.Response response){
+        if (!downloadThread.isAlive()) {
+            return CompletableFuture.completedFuture(response);
         }
-        downloadThread.queueCommand.add(command);
+        return downloadThread.channel.send(command);
     }
 
     /**
      * Stops the download from a particular DownloadThread
      * @param downloadThread The download thread to be stopped.
+     * @return A future that completes once the download has stopped.
      */
-    public void stopDownload(DownloadThread downloadThread) {
-        issueCommand(downloadThread,DownloadAction.Command.STOP);
-        waitUntilCommand(downloadThread,DownloadAction.Response.STOPPED);
-        joinThread(downloadThread);
-
+    public CompletableFuture<DownloadAction.Response> stopDownload(DownloadThread downloadThread) {
+        if (scheduler.cancel(downloadThread)) {
+            downloadThread.getDownloadMetadata().setStatus(DownloadStatus.STOPPED);
+            return CompletableFuture.completedFuture(DownloadAction.Response.STOPPED);
+        }
+        return issueCommand(downloadThread, DownloadAction.Command.STOP, DownloadAction.Response.STOPPED);
     }
 
     /**
      * Pauses the download from a particular DownloadThread.
      * @param downloadThread The download thread to be paused.
+     * @return A future that completes once the download has paused.
      */
-    public void pauseDownload(DownloadThread downloadThread) {
-        issueCommand(downloadThread, DownloadAction.Command.PAUSE);
-        waitUntilCommand(downloadThread,DownloadAction.Response.PAUSED);
+    public CompletableFuture<DownloadAction.Response> pauseDownload(DownloadThread downloadThread) {
+        return issueCommand(downloadThread, DownloadAction.Command.PAUSE, DownloadAction.Response.PAUSED);
     }
+
     /**
      * Resumes the download from a particular DownloadThread.
+     * A download that is not running, like one that was stopped or loaded from the history, is started again.
      * @param downloadThread The download thread to be resumed.
+     * @return A future that completes once the download has resumed.
      */
-
-    public void resumeDownload(DownloadThread downloadThread) {
-        issueCommand(downloadThread, DownloadAction.Command.RESUME);
-        waitUntilCommand(downloadThread,DownloadAction.Response.RESUMED);
+    public CompletableFuture<DownloadAction.Response> resumeDownload(DownloadThread downloadThread) {
+        if (!downloadThread.isAlive() && !scheduler.isQueued(downloadThread)
+                && downloadThread.getDownloadMetadata().getStatus() != DownloadStatus.COMPLETED) {
+            startDownload(downloadThread);
+            return CompletableFuture.completedFuture(DownloadAction.Response.RESUMED);
+        }
+        return issueCommand(downloadThread, DownloadAction.Command.RESUME, DownloadAction.Response.RESUMED);
     }
 
     /**
@@ -142,10 +475,17 @@ public class DownloadPool {
      */
 
     public void removeDownload(DownloadThread downloadThread){
-        if(downloadThread.thread.isAlive()){
+        scheduler.cancel(downloadThread);
+        if(downloadThread.isAlive()){
             stopDownload(downloadThread);
         }
-        downloadThreads.remove(downloadThread);
+        int downloadID = downloadThread.getDownloadMetadata().getDownloadID();
+        synchronized (downloadThreads) {
+            downloadThreads.remove(downloadThread);
+            downloadIndex.remove(downloadID);
+        }
+        unregisterMBean(getDownloadMBeanProperties(downloadThread));
+        journal.downloadRemoved(downloadID);
     }
 
     /**
@@ -153,7 +493,7 @@ public class DownloadPool {
      */
 
     public void stopAll() {
-        for (DownloadThread downloadThread : downloadThreads) {
+        for (DownloadThread downloadThread : copyDownloadThreads()) {
             stopDownload(downloadThread);
         }
     }
@@ -163,6 +503,9 @@ public class DownloadPool {
       * @param downloadThread The downloadThread object to be joined
      */
     public void joinThread(DownloadThread downloadThread){
+        if (downloadThread.thread == null) {
+            return;
+        }
         try {
                 downloadThread.thread.join();
             } catch (InterruptedException ex) {
@@ -174,7 +517,7 @@ public class DownloadPool {
      * Joins all downloadThread objects.
      */
     public void joinThreads() {
-        for (DownloadThread downloadThread : downloadThreads) {
+        for (DownloadThread downloadThread : copyDownloadThreads()) {
             joinThread(downloadThread);
         }
     }
@@ -182,22 +525,33 @@ public class DownloadPool {
     /**
      * Starts a new download.
      * @param url The download URL
+     * @param mirrors Other URLs that serve the same file, which the download spreads its requests over.
      */
-    public void newDownload(String url) {
+    public void newDownload(String url, String... mirrors) {
         DownloadMetadata downloadMetadata;
+        int downloadID;
+        synchronized (downloadThreads) {
+            downloadID = nextDownloadID++;
+        }
         try {
-            downloadMetadata = new DownloadMetadata(url, downloadThreads.size());
+            downloadMetadata = new DownloadMetadata(url, downloadID);
+            for (String mirror : mirrors) {
+                downloadMetadata.addMirror(mirror);
+            }
+            downloadMetadata.setOutputMode(defaultOutputMode);
+            downloadMetadata.setTransport(defaultTransport);
+            if (downloadDirectory != null) {
+                downloadMetadata.setFilename(Paths.get(downloadDirectory, downloadMetadata.getFilename()).toString());
+            }
         } catch (MalformedURLException ex) {
             Logger.getLogger(DownloadManager.class.getName()).log(Level.SEVERE, null, ex);
             return;
         }
-        ConcurrentLinkedQueue queueCommand = new ConcurrentLinkedQueue();
-        ConcurrentLinkedQueue queueResponse = new ConcurrentLinkedQueue();
-        DownloadRunnable downloadRunnable = new DownloadRunnable(downloadMetadata, queueCommand, queueResponse);
-        Thread thread = new Thread(downloadRunnable);
-        DownloadThread downloadThread = new DownloadThread(downloadMetadata, downloadRunnable, thread, queueCommand, queueResponse);
-        downloadThreads.add(downloadThread);
-        thread.start();
+        DownloadThread downloadThread = new DownloadThread(downloadMetadata, null);
+        addDownloadThread(downloadThread);
+        //The journal only records progress of downloads that are in the history, and the history is not written again for a single download.
+        journal.downloadAdded(new DownloadInfo(downloadMetadata, new ArrayList<>()));
+        startDownload(downloadThread);
     }
 
 }
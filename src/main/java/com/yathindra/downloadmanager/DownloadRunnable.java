@@ -1,35 +1,104 @@
 package com.yathindra.downloadmanager;
 
 import javafx.beans.property.SimpleObjectProperty;
-import javafx.collections.FXCollections;
+import javafx.beans.value.ChangeListener;
 
 import java.io.*;
-import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class DownloadRunnable implements Runnable {
 
+    private static final long JOIN_SLICE = 16L * 1024 * 1024;
+    private static final int JOIN_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final long CONTROL_INTERVAL_NANOS = 2_000_000_000L;
+    private static final long LOOP_INTERVAL_MILLIS = 100;
+    private static final long RESPONSE_CHECK_MILLIS = 500;
+    //A part is hedged when it runs at less than this share of the rate of the other parts.
+    private static final double HEDGE_RATE_RATIO = 0.25;
+    //A part is hedged only if the hedge is expected to finish it at least this much sooner.
+    private static final long HEDGE_MIN_GAIN_NANOS = 1_000_000_000L;
+    //A part is hedged only after it ran this long, so its rate is measured.
+    private static final long HEDGE_MIN_AGE_NANOS = 1_000_000_000L;
+
     private final SimpleObjectProperty<DownloadMetadata> metadata;
-    private final List<DownloadPartThread> downloadPartThreads = FXCollections.observableArrayList();
-    private final ConcurrentLinkedQueue queueCommand;
-    private final ConcurrentLinkedQueue queueResponse;
+    //Parts are added while downloading when a remaining range is split, so the list must be safe to iterate concurrently.
+    private final List<DownloadPartThread> downloadPartThreads = new CopyOnWriteArrayList<>();
+    //Splits requested from slow parts that have not been answered yet. Only used by the download thread.
+    private final Map<DownloadPartThread, CompletableFuture<Part>> pendingSplits = new HashMap<>();
+    //Hedged requests for the remaining ranges of lagging parts. Only used by the download thread.
+    private final Map<DownloadPartThread, HedgedRequest> hedges = new HashMap<>();
+    private final ConcurrencyController concurrencyController;
+    private final BandwidthLimiter bandwidthLimiter;
+    //Removed when the download ends, since the metadata outlives the runnable of every resume.
+    private final ChangeListener<Long> rateLimitListener;
+    private final DownloadMetrics metrics;
+    private final ProgressJournal journal;
+    private final DownloadDigest digest = new DownloadDigest();
+    private final RetryPolicy retryPolicy;
+    private final MirrorSet mirrors;
+    //The completed bytes of each part at its last journal record. Only used by the download thread.
+    private final Map<Integer, Long> journaledBytes = new HashMap<>();
+    private long lastJournalNanos;
+    //The listeners that journal the checkpoints of the parts. They are removed when the download ends, since a
+    //download started again gets a new runnable for the same parts.
+    private final Map<DownloadPartMetadata, ChangeListener<Long>> checkpointListeners = new ConcurrentHashMap<>();
+    private long lastControlNanos;
+    private long lastControlBytes;
+    private long lastMirrorNanos;
+    private final ControlChannel channel;
+    private final DownloadOutput output;
+    private final DownloadContext context;
 
-    public DownloadRunnable(DownloadMetadata metadata, ConcurrentLinkedQueue queueCommand, ConcurrentLinkedQueue queueResponse) {
+    public DownloadRunnable(DownloadMetadata metadata, ControlChannel channel, DownloadContext context) {
         this.metadata = new SimpleObjectProperty<>(metadata);
-        this.queueCommand = queueCommand;
-        this.queueResponse = queueResponse;
+        this.channel = channel;
+        this.context = context;
+        this.output = DownloadOutput.forMode(metadata);
+        this.concurrencyController = new ConcurrencyController(metadata.getMinConnections(), metadata.getMaxConnections(), metadata.getParts());
+        this.bandwidthLimiter = new BandwidthLimiter(metadata.getRateLimit(), context.getBandwidthLimiter());
+        this.rateLimitListener = (observable, oldValue, newValue) ->
+                bandwidthLimiter.setBytesPerSecond(newValue == null ? BandwidthLimiter.UNLIMITED : newValue);
+        this.metrics = new DownloadMetrics(context.getMetrics());
+        this.journal = context.getJournal();
+        this.retryPolicy = context.getRetryPolicy().forDownload();
+        this.mirrors = new MirrorSet(metadata, context);
     }
 
-    public DownloadRunnable(DownloadMetadata metadata, ConcurrentLinkedQueue queueCommand, ConcurrentLinkedQueue queueResponse, List<DownloadPartMetadata> downloadPartMetadatas) {
+    public DownloadRunnable(DownloadMetadata metadata, ControlChannel channel, DownloadContext context, List<DownloadPartMetadata> downloadPartMetadatas) {
         this.metadata = new SimpleObjectProperty<>(metadata);
-        this.queueCommand = queueCommand;
-        this.queueResponse = queueResponse;
+        this.channel = channel;
+        this.context = context;
+        this.output = DownloadOutput.forMode(metadata);
+        this.concurrencyController = new ConcurrencyController(metadata.getMinConnections(), metadata.getMaxConnections(), metadata.getParts());
+        this.bandwidthLimiter = new BandwidthLimiter(metadata.getRateLimit(), context.getBandwidthLimiter());
+        this.rateLimitListener = (observable, oldValue, newValue) ->
+                bandwidthLimiter.setBytesPerSecond(newValue == null ? BandwidthLimiter.UNLIMITED : newValue);
+        this.metrics = new DownloadMetrics(context.getMetrics());
+        this.journal = context.getJournal();
+        this.retryPolicy = context.getRetryPolicy().forDownload();
+        this.mirrors = new MirrorSet(metadata, context);
         this.loadDownloadPartMetadatas(downloadPartMetadatas);
     }
 
@@ -42,6 +111,18 @@ public class DownloadRunnable implements Runnable {
         return metadata.getValue();
     }
 
+    public DownloadMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the sources of the download, its URL first.
+     * @return The URL and the mirrors of the download.
+     */
+    public List<Mirror> getMirrors() {
+        return mirrors.getMirrors();
+    }
+
     public List<DownloadPartMetadata> getPartMetadatas() {
         List<DownloadPartMetadata> metadatas = new ArrayList<>();
         for (DownloadPartThread dthread : downloadPartThreads) {
@@ -50,94 +131,645 @@ public class DownloadRunnable implements Runnable {
         return metadatas;
     }
 
+    /**
+     * Returns the ID to give to the next part split off from another one.
+     * @return An ID not used by any part of the download.
+     */
+    private int nextPartID() {
+        int partID = 0;
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            partID = Math.max(partID, dthread.getDownloadPartMetadata().getPartID() + 1);
+        }
+        return partID;
+    }
+
     /**
      * This sets the headers from the HTTP response.
      * Headers such as Accept-Ranges is required to be initialized.
+     * A download is only divided into ranges if the server accepts ranges and tells the size of the file.
+     * Otherwise it is downloaded as a single stream.
      * @throws IOException Exception is thrown if connection to the url cannot be made.
      */
     public void setHeaders() throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) getDownloadMetadata().getUrl().openConnection();
-//        curl --head <URL>
-        connection.setRequestMethod("HEAD");
-        getDownloadMetadata().setSize(connection.getContentLengthLong());
+        try (TransportResponse response = getTransport().head(getDownloadMetadata().getUrl(), getDownloadMetadata().getTimeout())) {
+            if (response.getStatusCode() >= 400) {
+                throw new HttpStatusException(getDownloadMetadata().getUrl(), response.getStatusCode(), response.getHeader("Retry-After"));
+            }
+            getDownloadMetadata().setSize(response.getContentLength());
+            getDownloadMetadata().setValidators(response.getHeader("ETag"), response.getHeader("Last-Modified"));
 //        https://developer.mozilla.org/en-US/docs/Web/HTTP/Range_requests
-        String ranges = connection.getHeaderField("Accept-Ranges");
-        if (ranges != null && !ranges.equals("none")) {
-            getDownloadMetadata().setAccelerated(true);
+            String ranges = response.getHeader("Accept-Ranges");
+            getDownloadMetadata().setAccelerated(ranges != null && !ranges.equals("none") && getDownloadMetadata().getSize() >= 0);
             setStatus(DownloadStatus.STARTING);
         }
 
     }
 
+    /**
+     * Returns the transport the download makes its requests with.
+     * @return The transport chosen for the download.
+     */
+    private Transport getTransport() {
+        return context.getTransport(getDownloadMetadata().getTransport());
+    }
+
     /**
      * This loads the DownloadPartMetadata from the object.
      * @param downloadPartMetadatas The object that contains the partial download information,
      */
     public void loadDownloadPartMetadatas(List<DownloadPartMetadata> downloadPartMetadatas) {
         for (DownloadPartMetadata downloadPartMetadata : downloadPartMetadatas) {
-            ConcurrentLinkedQueue queueCom = new ConcurrentLinkedQueue();
-            ConcurrentLinkedQueue queueRes = new ConcurrentLinkedQueue();
             downloadPartMetadata.setDownloadMetadata(getDownloadMetadata());
-            DownloadPartRunnable downloadPart = new DownloadPartRunnable(downloadPartMetadata, queueCom, queueRes);
-            downloadPartThreads.add(new DownloadPartThread(downloadPart, downloadPartMetadata, queueCom, queueRes));
+            addDownloadPartThread(downloadPartMetadata);
         }
     }
 
+    /**
+     * Creates the thread object of a download part and adds it to the download.
+     * @param partMetadata The metadata of the part.
+     * @return The created download part thread object.
+     */
+    private DownloadPartThread addDownloadPartThread(DownloadPartMetadata partMetadata) {
+        ControlChannel partChannel = new ControlChannel();
+        DownloadPartRunnable downloadPart = new DownloadPartRunnable(partMetadata, partChannel, output, getTransport(), bandwidthLimiter, metrics, digest, retryPolicy, mirrors);
+        DownloadPartThread downloadPartThread = new DownloadPartThread(downloadPart, partMetadata, partChannel);
+        downloadPartThreads.add(downloadPartThread);
+        //A checkpoint is journaled right away, since it is the progress that survives even a power failure.
+        int downloadID = getDownloadMetadata().getDownloadID();
+        ChangeListener<Long> listener = (observable, oldValue, newValue) -> journal.partProgress(downloadID, partMetadata);
+        partMetadata.getCheckpointedBytesProperty().addListener(listener);
+        checkpointListeners.put(partMetadata, listener);
+        return downloadPartThread;
+    }
+
     /**
      * This creates the threads for the download parts.
      * It is useful if the metadata was loaded from file.
+     * A download without ranges gets a single part that streams the whole file, up to its end if the size is not known.
      */
     public void createDownloadPartThreads() {
+        List<Part> parts;
+        if (getDownloadMetadata().getAccelerated()) {
+            parts = divideDownload();
+        } else {
+            long size = getDownloadMetadata().getSize();
+            parts = List.of(new Part(0, size >= 0 ? size - 1 : Part.UNKNOWN_END));
+        }
         int partID = 0;
-        for (Part part : divideDownload()) {
-            DownloadPartMetadata part_metadata = new DownloadPartMetadata(getDownloadMetadata(), partID, part);
-            ConcurrentLinkedQueue queueCom = new ConcurrentLinkedQueue();
-            ConcurrentLinkedQueue queueRes = new ConcurrentLinkedQueue();
-            DownloadPartRunnable downloadPart = new DownloadPartRunnable(part_metadata, queueCom, queueRes);
-            downloadPartThreads.add(new DownloadPartThread(downloadPart, part_metadata, queueCom, queueRes));
+        for (Part part : parts) {
+            addDownloadPartThread(new DownloadPartMetadata(getDownloadMetadata(), partID, part));
             partID++;
         }
+        journal.downloadHeaders(getDownloadMetadata(), getPartMetadatas());
 
     }
 
     /**
      * This initializes the download.
+     * The headers are requested under the retry policy and the circuit breaker of the host like the ranges of the parts.
+     * The mirrors of a ranged download are checked against the headers before any part starts, also when the download is resumed.
      */
     public void initialize() {
         //If download Part Threads is not empty and loaded from file then skip.
         if (downloadPartThreads.isEmpty()) {
-            try {
-                setHeaders();
-
-            } catch (IOException ex) {
-                Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
-                setStatus(DownloadStatus.ERROR);
-                return;
+            CircuitBreaker circuitBreaker = mirrors.getPrimary().getCircuitBreaker();
+            int attempts = 0;
+            while (true) {
+                long delayMillis;
+                try {
+                    circuitBreaker.acquire();
+                    setHeaders();
+                    circuitBreaker.recordSuccess();
+                    break;
+                } catch (CircuitOpenException ex) {
+                    delayMillis = ex.getWaitMillis();
+                } catch (IOException ex) {
+                    Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
+                    metrics.recordError(ex);
+                    if (RetryPolicy.isRetryable(ex)) {
+                        circuitBreaker.recordFailure(ex instanceof HttpStatusException ? ((HttpStatusException) ex).getRetryAfterMillis() : -1);
+                    } else {
+                        circuitBreaker.recordSuccess();
+                    }
+                    attempts++;
+                    if (!retryPolicy.tryRetry(attempts, ex)) {
+                        setStatus(DownloadStatus.ERROR);
+                        return;
+                    }
+                    metrics.recordRetry();
+                    delayMillis = retryPolicy.getDelayMillis(attempts, ex);
+                }
+                if (!waitToRetry(delayMillis)) {
+                    return;
+                }
             }
             createDownloadPartThreads();
 
         }
+        //A download without ranges streams from its URL only.
+        if (getDownloadMetadata().getAccelerated()) {
+            mirrors.probe(getTransport());
+        }
+    }
+
+    /**
+     * Waits before the headers are requested again, following the commands that arrive meanwhile.
+     * A paused download waits until it is resumed.
+     * @param delayMillis The time to wait in milliseconds.
+     * @return If the download goes on, or false if it was stopped.
+     */
+    private boolean waitToRetry(long delayMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        DownloadStatus status = getStatus();
+        boolean paused = false;
+        while (true) {
+            long wait = paused ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (wait <= 0) {
+                return true;
+            }
+            ControlChannel.Message message;
+            try {
+                message = channel.poll(wait, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                setStatus(DownloadStatus.ERROR);
+                return false;
+            }
+            if (message == null) {
+                continue;
+            }
+            switch (message.getCommand()) {
+                case STOP:
+                    setStatus(DownloadStatus.STOPPED);
+                    message.reply(DownloadAction.Response.STOPPED);
+                    return false;
+                case PAUSE:
+                    paused = true;
+                    setStatus(DownloadStatus.PAUSED);
+                    message.reply(DownloadAction.Response.PAUSED);
+                    break;
+                case RESUME:
+                default:
+                    message.reply(DownloadAction.Response.RESUMED);
+                    if (paused) {
+                        //A resumed download tries again at once.
+                        setStatus(status);
+                        return true;
+                    }
+                    break;
+            }
+        }
     }
 
     /**
      * This divides the download into equal parts.
      * @return The list of parts which the download is divided into.
      */
-    private List<Part> divideDownload() {
+    List<Part> divideDownload() {
         List<Part> parts = new ArrayList<>();
         long start = 0;
         double size = (double) getDownloadMetadata().getSize() / getDownloadMetadata().getParts();
         for (int cnt = 0; cnt < getDownloadMetadata().getParts(); cnt++) {
-            Part part = new Part(start, (int) Math.round(size * (cnt + 1)));
+            long end = Math.round(size * (cnt + 1)) - 1;
+            Part part = new Part(start, end);
             parts.add(part);
-            start = (int) Math.round(size * (cnt + 1)) + 1;
+            start = end + 1;
 
         }
         return parts;
     }
 
+    /**
+     * Measures the transfer rate of every part that is still downloading.
+     * A completed part keeps the rate it finished at, which the lagging parts are compared with.
+     * The rates of the sources are measured along with them.
+     */
+    private void sampleRates() {
+        long now = System.nanoTime();
+        mirrors.sampleRates(now);
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            if (dthread.getDownloadPart().getStatus() == DownloadStatus.COMPLETED) {
+                continue;
+            }
+            dthread.rate.update(dthread.getDownloadPartMetadata().getCompletedBytes(), now);
+        }
+    }
+
+    /**
+     * Finds the part expected to finish last whose remaining range is still large enough to split.
+     * @return The slowest part, or null if no part can be split.
+     */
+    private DownloadPartThread findSlowestPart() {
+        long minimum = 2 * getDownloadMetadata().getMinSegmentSize();
+        return downloadPartThreads.stream()
+                .filter(dthread -> dthread.getDownloadPart().getStatus() != DownloadStatus.COMPLETED)
+                .filter(this::isConnected)
+                .filter(dthread -> !pendingSplits.containsKey(dthread))
+                .filter(dthread -> dthread.getDownloadPartMetadata().getRemainingBytes() >= minimum)
+                .max(Comparator.comparingDouble(dthread -> dthread.getDownloadPartMetadata().getRemainingBytes() / Math.max(1.0, dthread.rate.getBytesPerSecond())))
+                .orElse(null);
+    }
+
+    /**
+     * Starts parts for the ranges that slow parts have split off.
+     */
+    private void collectSplits() {
+        Iterator<Map.Entry<DownloadPartThread, CompletableFuture<Part>>> splits = pendingSplits.entrySet().iterator();
+        while (splits.hasNext()) {
+            Map.Entry<DownloadPartThread, CompletableFuture<Part>> split = splits.next();
+            DownloadPartThread victim = split.getKey();
+            if (!split.getValue().isDone()) {
+                //A part that ended before it saw the request will never answer it.
+                if (victim.thread == null || !victim.thread.isAlive()) {
+                    splits.remove();
+                }
+                continue;
+            }
+            splits.remove();
+            Part part = split.getValue().getNow(null);
+            if (part == null) {
+                continue;
+            }
+            DownloadPartMetadata partMetadata = new DownloadPartMetadata(getDownloadMetadata(), nextPartID(), part, victim.getDownloadPartMetadata().getPartID());
+            DownloadPartThread downloadPartThread = addDownloadPartThread(partMetadata);
+            journal.partSplit(getDownloadMetadata().getDownloadID(), partMetadata);
+            if (getStatus() == DownloadStatus.DOWNLOADING) {
+                startDownloadPartThread(downloadPartThread);
+            }
+        }
+    }
+
+    /**
+     * Requests the remaining range of the part that lags furthest behind again on another connection.
+     * Only parts whose remaining range is too small to split are hedged, which happens near the end of
+     * the download. A part is hedged once at most, and only if it runs far slower than the other parts
+     * and the hedge is expected to finish its range clearly sooner.
+     */
+    private void hedgeStraggler() {
+        long maximum = 2 * getDownloadMetadata().getMinSegmentSize();
+        long now = System.nanoTime();
+        DownloadPartThread straggler = null;
+        double stragglerNanos = 0;
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            DownloadPartMetadata partMetadata = dthread.getDownloadPartMetadata();
+            long remaining = partMetadata.getRemainingBytes();
+            if (hedges.containsKey(dthread) || !isConnected(dthread) || dthread.getDownloadPart().isSplitPending()
+                    || partMetadata.getStatus() != DownloadStatus.DOWNLOADING || remaining == 0 || remaining >= maximum
+                    || now - dthread.startNanos < HEDGE_MIN_AGE_NANOS) {
+                continue;
+            }
+            double rate = dthread.rate.getBytesPerSecond();
+            double reference = getMedianRate(dthread);
+            if (reference == 0 || rate >= HEDGE_RATE_RATIO * reference) {
+                continue;
+            }
+            double partNanos = rate > 0 ? remaining * 1e9 / rate : Double.MAX_VALUE;
+            if (partNanos - remaining * 1e9 / reference < HEDGE_MIN_GAIN_NANOS) {
+                continue;
+            }
+            if (straggler == null || partNanos > stragglerNanos) {
+                straggler = dthread;
+                stragglerNanos = partNanos;
+            }
+        }
+        if (straggler == null) {
+            return;
+        }
+        ConnectionLimiter connectionLimiter = context.getConnectionLimiter();
+        if (!connectionLimiter.tryAcquire()) {
+            return;
+        }
+        DownloadPartRunnable downloadPart = straggler.getDownloadPart();
+        Part part = straggler.getDownloadPartMetadata().getPart();
+        //The part only moves on from here, so the hedge covers everything the part has left once it is done.
+        long startByte = part.getStartByte() + straggler.getDownloadPartMetadata().getCompletedBytes();
+        HedgedRequest hedge = new HedgedRequest(downloadPart, startByte, part.getEndByte(), getTransport(), bandwidthLimiter, mirrors);
+        Thread thread = context.getExecutor().newThread(() -> {
+            try {
+                hedge.run();
+            } finally {
+                connectionLimiter.release();
+            }
+        }, this.toString() + " " + downloadPart.toString() + " Hedge");
+        hedges.put(straggler, hedge);
+        metrics.recordHedge();
+        thread.start();
+    }
+
+    /**
+     * Returns the median transfer rate of the parts other than one that have a rate.
+     * @param excluded The part to leave out.
+     * @return The median rate in bytes per second, or 0 if no other part has a rate.
+     */
+    private double getMedianRate(DownloadPartThread excluded) {
+        List<Double> rates = new ArrayList<>();
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            double rate = dthread.rate.getBytesPerSecond();
+            if (dthread != excluded && rate > 0) {
+                rates.add(rate);
+            }
+        }
+        if (rates.isEmpty()) {
+            return 0;
+        }
+        rates.sort(null);
+        return rates.get(rates.size() / 2);
+    }
+
+    /**
+     * Counts the hedges that won and cancels those whose part finished first, stopped or gave up its connection.
+     * A hedge that failed stays with its part, so the part is not hedged again.
+     */
+    private void collectHedges() {
+        Iterator<Map.Entry<DownloadPartThread, HedgedRequest>> entries = hedges.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<DownloadPartThread, HedgedRequest> entry = entries.next();
+            DownloadPartThread dthread = entry.getKey();
+            HedgedRequest hedge = entry.getValue();
+            //The part takes the bytes of the hedge before it completes, so a part that is done is checked first.
+            boolean partDone = dthread.getDownloadPart().getStatus() == DownloadStatus.COMPLETED || !isConnected(dthread);
+            if (hedge.isWon()) {
+                entries.remove();
+                metrics.recordHedgeWon(hedge.getSavedNanos());
+            } else if (partDone || getStatus() != DownloadStatus.DOWNLOADING) {
+                hedge.cancel();
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels all hedges, for when the download ends.
+     */
+    private void cancelHedges() {
+        for (HedgedRequest hedge : hedges.values()) {
+            hedge.cancel();
+        }
+        hedges.clear();
+    }
+
+    /**
+     * Returns the number of hedges that are still downloading.
+     * @return The number of connections held by hedges.
+     */
+    private long getRunningHedges() {
+        return hedges.values().stream().filter(hedge -> !hedge.isFinished()).count();
+    }
+
+    /**
+     * Checks if the thread of a part is running and keeps its connection.
+     * @param dthread The download part thread object.
+     * @return If the part holds a connection.
+     */
+    private boolean isConnected(DownloadPartThread dthread) {
+        return dthread.thread != null && dthread.thread.isAlive() && !dthread.getDownloadPart().isParkPending();
+    }
+
+    /**
+     * Checks if a part still has to be downloaded but has no thread running.
+     * @param dthread The download part thread object.
+     * @return If the part waits for a connection.
+     */
+    private boolean isWaiting(DownloadPartThread dthread) {
+        return dthread.getDownloadPart().getStatus() != DownloadStatus.COMPLETED
+                && (dthread.thread == null || !dthread.thread.isAlive());
+    }
+
+    /**
+     * Measures the aggregate throughput and lets the controller choose the number of connections.
+     */
+    private void adjustConnections() {
+        long now = System.nanoTime();
+        if (now - lastControlNanos < CONTROL_INTERVAL_NANOS) {
+            return;
+        }
+        long completedBytes = getCompletedBytes();
+        long errors = 0;
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            errors += dthread.getDownloadPartMetadata().retries.getValue();
+        }
+        if (lastControlNanos != 0) {
+            double bytesPerSecond = (completedBytes - lastControlBytes) * 1e9 / (now - lastControlNanos);
+            getDownloadMetadata().setConnections(concurrencyController.update(bytesPerSecond, errors));
+        } else {
+            concurrencyController.update(0, errors);
+        }
+        lastControlNanos = now;
+        lastControlBytes = completedBytes;
+    }
+
+    /**
+     * Journals the progress of the parts that moved since their last record, once every sync interval of the journal.
+     */
+    private void journalProgress() {
+        long now = System.nanoTime();
+        if (now - lastJournalNanos < TimeUnit.MILLISECONDS.toNanos(journal.getSyncIntervalMillis())) {
+            return;
+        }
+        lastJournalNanos = now;
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            DownloadPartMetadata partMetadata = dthread.getDownloadPartMetadata();
+            long completedBytes = partMetadata.getCompletedBytes();
+            Long journaled = journaledBytes.put(partMetadata.getPartID(), completedBytes);
+            if (journaled == null || journaled != completedBytes) {
+                journal.partProgress(getDownloadMetadata().getDownloadID(), partMetadata);
+            }
+        }
+    }
+
+    /**
+     * Hashes the bytes that parts wrote ahead of the checksum cursor, a limited amount per call.
+     */
+    private void hashAhead() {
+        try {
+            digest.catchUp(getDownloadMetadata(), getPartMetadatas(), DownloadDigest.CATCH_UP_BYTES);
+        } catch (IOException ex) {
+            //The bytes are read again when the download completes.
+            Logger.getLogger(DownloadRunnable.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Completes the checksum of the download and compares it with the expected checksum, if one was given.
+     * The download fails if the checksums differ.
+     * @return If the download may complete.
+     */
+    private boolean verifyChecksum() {
+        List<DownloadPartMetadata> parts = getPartMetadatas();
+        long size = 0;
+        for (DownloadPartMetadata partMetadata : parts) {
+            size = Math.max(size, partMetadata.getPart().getEndByte() + 1);
+        }
+        try {
+            digest.catchUp(getDownloadMetadata(), parts, Long.MAX_VALUE);
+            String checksum = digest.finish(size);
+            if (checksum == null) {
+                throw new IOException("Only " + digest.getPosition() + " of " + size + " bytes could be hashed");
+            }
+            getDownloadMetadata().setChecksum(checksum);
+            String expected = getDownloadMetadata().getExpectedChecksum();
+            if (expected != null && !expected.equals(checksum)) {
+                throw new ChecksumMismatchException(getDownloadMetadata().getFilename(), expected, checksum);
+            }
+            return true;
+        } catch (IOException ex) {
+            setStatus(DownloadStatus.ERROR);
+            metrics.recordError(ex);
+            Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Invalidates the parts whose completed bytes were downloaded from an older version of the file than the one
+     * a part has seen since. Only the bytes of those parts are downloaded again, one part at a time as they are
+     * found, and every part whose bytes match the current version is kept.
+     * A part that is still running is invalidated once its thread ends, or by itself when it requests its range again.
+     * @return If a part still holds bytes of an older version.
+     */
+    private boolean invalidateStaleParts() {
+        boolean stale = false;
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            if (!dthread.getDownloadPartMetadata().isStale()) {
+                continue;
+            }
+            if (dthread.thread != null && dthread.thread.isAlive()) {
+                stale = true;
+                continue;
+            }
+            dthread.getDownloadPart().invalidate();
+        }
+        return stale;
+    }
+
+    /**
+     * Checks that no part gave up after it used up its retries.
+     * @throws IOException The failure of the first part that gave up.
+     */
+    private void checkParts() throws IOException {
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            IOException failure = dthread.getDownloadPart().getFailure();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Checks that the file did not change its size, which the ranges of the parts were divided from.
+     * @throws SourceChangedException Exception is thrown if a part found the file with another size.
+     */
+    private void checkSize() throws SourceChangedException {
+        //The range of a split that is not collected yet belongs to no part, and a stream of unknown size has no end yet.
+        if (!pendingSplits.isEmpty() || getDownloadMetadata().getSize() < 0) {
+            return;
+        }
+        long size = 0;
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            size = Math.max(size, dthread.getDownloadPartMetadata().getPart().getEndByte() + 1);
+        }
+        if (size != getDownloadMetadata().getSize()) {
+            throw new SourceChangedException(getDownloadMetadata().getUrl().toString(), size, getDownloadMetadata().getSize());
+        }
+    }
+
+    /**
+     * Returns the number of parts that hold a connection.
+     * @return The number of open connections of the download.
+     */
+    public int getActiveConnections() {
+        return (int) downloadPartThreads.stream().filter(this::isConnected).count();
+    }
+
+    /**
+     * Returns the number of connections the download should hold.
+     * A download never holds more than its fair share of the connections of the pool,
+     * nor more than its usable sources allow together.
+     * @return The number of connections chosen by the controller within those limits.
+     */
+    private int getConnectionTarget() {
+        int target = Math.min(getDownloadMetadata().getParts(), context.getConnectionLimiter().getFairShare());
+        return Math.min(target, getTransport().getConnectionPool().getMaxPerHost() * Math.max(1, mirrors.getUsableCount()));
+    }
+
+    /**
+     * Moves a connection from a source that holds more than its share to the others.
+     * The slowest part downloading from that source gives up its connection, and its next request goes to
+     * the source chosen for it then. Sources are only rebalanced once per control interval.
+     */
+    private void rebalanceMirrors() {
+        long now = System.nanoTime();
+        if (now - lastMirrorNanos < CONTROL_INTERVAL_NANOS) {
+            return;
+        }
+        lastMirrorNanos = now;
+        Mirror overloaded = mirrors.findOverloaded();
+        if (overloaded == null) {
+            return;
+        }
+        downloadPartThreads.stream()
+                .filter(this::isConnected)
+                .filter(dthread -> dthread.getDownloadPart().getSource() == overloaded)
+                .min(Comparator.comparingDouble(dthread -> dthread.rate.getBytesPerSecond()))
+                .ifPresent(dthread -> dthread.getDownloadPart().requestPark());
+    }
+
+    /**
+     * Keeps the number of connections at the number chosen by the controller.
+     * Waiting parts are started first. Once none is left, the remaining range of the slowest part is split
+     * in half and the second half is given to a new part, down to the minimum segment size.
+     * If there are too many connections, the slowest parts give up their connection and wait.
+     * Once no range is left to split, a part that lags far behind is hedged if a connection is free.
+     * A source that holds more connections than its rate earns gives one of them up to the other sources.
+     * A download without ranges is never split, hedged or moved, since its single stream cannot be resumed elsewhere.
+     */
+    private void balanceParts() {
+        collectSplits();
+        collectHedges();
+        if (getStatus() != DownloadStatus.DOWNLOADING) {
+            return;
+        }
+        sampleRates();
+        adjustConnections();
+        int target = getConnectionTarget();
+        long connected = downloadPartThreads.stream().filter(this::isConnected).count();
+        if (connected > target) {
+            downloadPartThreads.stream()
+                    .filter(this::isConnected)
+                    .sorted(Comparator.comparingDouble(dthread -> dthread.rate.getBytesPerSecond()))
+                    .limit(connected - target)
+                    .forEach(dthread -> dthread.getDownloadPart().requestPark());
+            return;
+        }
+        if (getDownloadMetadata().getAccelerated()) {
+            rebalanceMirrors();
+        }
+        for (DownloadPartThread dthread : downloadPartThreads) {
+            if (connected + pendingSplits.size() >= target) {
+                return;
+            }
+            if (isWaiting(dthread)) {
+                if (!startDownloadPartThread(dthread)) {
+                    return;
+                }
+                connected++;
+            }
+        }
+        //A split only helps if the pool has a connection for the new part.
+        ConnectionLimiter connectionLimiter = context.getConnectionLimiter();
+        if (getDownloadMetadata().getAccelerated() && connected + pendingSplits.size() + getRunningHedges() < target && connectionLimiter.getInUse() < connectionLimiter.getLimit()) {
+            DownloadPartThread slowest = findSlowestPart();
+            if (slowest != null) {
+                pendingSplits.put(slowest, slowest.getDownloadPart().requestSplit());
+            } else if (pendingSplits.isEmpty()) {
+                hedgeStraggler();
+            }
+        }
+    }
+
     private void setStatus(DownloadStatus downloadStatus) {
         getDownloadMetadata().setStatus(downloadStatus);
+        journal.downloadStatus(getDownloadMetadata().getDownloadID(), downloadStatus);
     }
 
     public DownloadStatus getStatus() {
@@ -158,7 +790,7 @@ public class DownloadRunnable implements Runnable {
      * @param thread The thread to be joined.
      */
     public void joinThread(Thread thread) {
-        if (thread != null && !thread.isAlive()) {
+        if (thread != null) {
             try {
                 thread.join();
             } catch (InterruptedException ex) {
@@ -178,32 +810,45 @@ public class DownloadRunnable implements Runnable {
 
     /**
      * Waits for a response from a thread.
+     * A thread that ends without reading the command counts as having answered it.
      * @param dthread The download part thread which is giving the response
-     * @param response The response type.
+     * @param response The future of the response.
      */
-    public void waitUntilResponse(DownloadPartThread dthread, DownloadAction.Response response) {
+    public void waitUntilResponse(DownloadPartThread dthread, CompletableFuture<DownloadAction.Response> response) {
         while (true) {
-            if (!dthread.queueResponse.isEmpty() && dthread.queueResponse.peek().equals(response)) {
-                dthread.queueResponse.poll();
-                break;
+            try {
+                response.get(RESPONSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException ex) {
+                if (dthread.thread == null || !dthread.thread.isAlive()) {
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
+                return;
             }
         }
 
     }
 
     /**
-     * Issues a command and waits for the response.
-     * The command is issued to all download part threads
+     * Issues a command and waits for the responses.
+     * The command is issued to all download part threads at once and the responses are awaited afterwards.
      * @param command The command to issue.
-     * @param response The response that should be received.
      */
-    public void issueCommand(DownloadAction.Command command,DownloadAction.Response response){
+    public void issueCommand(DownloadAction.Command command){
+        Map<DownloadPartThread, CompletableFuture<DownloadAction.Response>> responses = new HashMap<>();
         for (DownloadPartThread dthread : downloadPartThreads) {
             if (dthread.thread==null || !dthread.thread.isAlive()) {
                 continue;
             }
-            dthread.queueCommand.add(command);
-            waitUntilResponse(dthread, response);
+            responses.put(dthread, dthread.channel.send(command));
+        }
+        for (Map.Entry<DownloadPartThread, CompletableFuture<DownloadAction.Response>> response : responses.entrySet()) {
+            waitUntilResponse(response.getKey(), response.getValue());
         }
     }
 
@@ -214,7 +859,7 @@ public class DownloadRunnable implements Runnable {
         if (getStatus() != DownloadStatus.DOWNLOADING) {
             return;
         }
-        issueCommand(DownloadAction.Command.PAUSE,DownloadAction.Response.PAUSED);
+        issueCommand(DownloadAction.Command.PAUSE);
         setStatus(DownloadStatus.PAUSED);
     }
 
@@ -225,7 +870,7 @@ public class DownloadRunnable implements Runnable {
         if (getStatus() != DownloadStatus.PAUSED) {
             return;
         }
-        issueCommand(DownloadAction.Command.RESUME,DownloadAction.Response.RESUMED);
+        issueCommand(DownloadAction.Command.RESUME);
         setStatus(DownloadStatus.DOWNLOADING);
     }
 
@@ -236,7 +881,7 @@ public class DownloadRunnable implements Runnable {
         if (getStatus() == DownloadStatus.STOPPED) {
             return;
         }
-        issueCommand(DownloadAction.Command.STOP,DownloadAction.Response.STOPPED);
+        issueCommand(DownloadAction.Command.STOP);
         setStatus(DownloadStatus.STOPPED);
     }
 
@@ -244,19 +889,84 @@ public class DownloadRunnable implements Runnable {
      * Start the download part thread objects.
      */
     public void startDownloadPartThreads() {
-        if (!getDownloadMetadata().getAccelerated()) {
-            setStatus(DownloadStatus.ERROR);
+        if (getStatus() == DownloadStatus.ERROR) {
             return;
         }
+        fallBackToStream();
         setStatus(DownloadStatus.DOWNLOADING);
+        //Parts beyond the chosen number of connections wait until a connection is free.
+        int started = 0;
         for (DownloadPartThread downloadThread : downloadPartThreads) {
-            Thread thread = new Thread(downloadThread.getDownloadPart());
-            thread.setName(this.toString() + " " + downloadThread.downloadPart.toString());
-            downloadThread.thread = thread;
-            thread.start();
+            if (downloadThread.getDownloadPart().getStatus() == DownloadStatus.COMPLETED) {
+                continue;
+            }
+            if (started < getConnectionTarget() && startDownloadPartThread(downloadThread)) {
+                started++;
+            } else {
+                downloadThread.getDownloadPartMetadata().setStatus(DownloadStatus.QUEUED);
+            }
         }
     }
 
+    /**
+     * Replaces the parts of a download whose server turned out to ignore ranges with a single part that streams
+     * the whole file. The parts are stopped and their bytes are dropped, since a server without ranges sends
+     * every request from the start of the file anyway. A download that has a single part already keeps it.
+     * Only a download whose server answered without a size or without ranges falls back, never one that failed.
+     */
+    private void fallBackToStream() {
+        if (getStatus() == DownloadStatus.ERROR || getDownloadMetadata().getAccelerated() || downloadPartThreads.size() <= 1) {
+            return;
+        }
+        Logger.getLogger(DownloadRunnable.class.getName()).log(Level.WARNING, "Server of {0} ignores ranges, downloading it as a single stream", getDownloadMetadata().getUrl());
+        cancelHedges();
+        issueCommand(DownloadAction.Command.STOP);
+        joinThreads();
+        pendingSplits.clear();
+        for (Map.Entry<DownloadPartMetadata, ChangeListener<Long>> listener : checkpointListeners.entrySet()) {
+            listener.getKey().getCheckpointedBytesProperty().removeListener(listener.getValue());
+        }
+        checkpointListeners.clear();
+        journaledBytes.clear();
+        try {
+            deleteDownloadPartFiles();
+        } catch (IOException ex) {
+            Logger.getLogger(DownloadRunnable.class.getName()).log(Level.WARNING, null, ex);
+        }
+        long droppedBytes = getCompletedBytes();
+        if (droppedBytes > 0) {
+            metrics.recordInvalidation(droppedBytes);
+        }
+        downloadPartThreads.clear();
+        digest.reset();
+        createDownloadPartThreads();
+    }
+
+    /**
+     * Starts the thread of a single download part if the pool has a free connection.
+     * The connection is given back when the thread ends.
+     * @param downloadThread The download part thread object to start.
+     * @return If the part was started.
+     */
+    private boolean startDownloadPartThread(DownloadPartThread downloadThread) {
+        ConnectionLimiter connectionLimiter = context.getConnectionLimiter();
+        if (!connectionLimiter.tryAcquire()) {
+            return false;
+        }
+        DownloadPartRunnable downloadPart = downloadThread.getDownloadPart();
+        Thread thread = context.getExecutor().newThread(() -> {
+            try {
+                downloadPart.run();
+            } finally {
+                connectionLimiter.release();
+            }
+        }, this.toString() + " " + downloadPart.toString());
+        downloadThread.thread = thread;
+        downloadThread.startNanos = System.nanoTime();
+        thread.start();
+        return true;
+    }
+
     /**
      * Deletes the download part files.
      * @throws IOException Exception occurs if the file could not be deleted or found.
@@ -269,70 +979,204 @@ public class DownloadRunnable implements Runnable {
     }
 
     /**
-     * Copies data from one stream to the other.
-     * @param outFile The stream to write to.
-     * @param inFile The stream to read from.
-     * @throws IOException Exception is thrown if cannot read from input stream.
+     * Copies a part file into its own offset of the target file.
+     * The copy is done by the kernel in slices so that the join progress can be reported.
+     * @param target The channel of the target file.
+     * @param partMetadata The part to copy.
+     * @param joinedBytes The counter of bytes joined so far over all parts.
+     * @throws IOException Exception is thrown if the part file cannot be read or the target cannot be written.
+     */
+    void transferPart(FileChannel target, DownloadPartMetadata partMetadata, AtomicLong joinedBytes) throws IOException {
+        Part part = partMetadata.getPart();
+        try (FileChannel source = FileChannel.open(Paths.get(partMetadata.getFilename()), StandardOpenOption.READ)) {
+            long length = Math.min(source.size(), part.getLength());
+            long transferred = 0;
+            while (transferred < length) {
+                long count = target.transferFrom(source, part.getStartByte() + transferred, Math.min(JOIN_SLICE, length - transferred));
+                if (count <= 0) {
+                    throw new EOFException("Part file " + partMetadata.getFilename() + " ended after " + transferred + " bytes");
+                }
+                transferred += count;
+                updateJoinProgress(joinedBytes.addAndGet(count));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes downloaded over all parts.
+     * @return The downloaded bytes.
      */
-    public void copyToStream(BufferedOutputStream outFile, BufferedInputStream inFile) throws IOException {
-        int byt;
-        while ((byt = inFile.read()) != -1 && outFile != null) {
-            outFile.write(byt);
+    public long getCompletedBytes() {
+        long completedBytes = 0;
+        for (DownloadPartThread downloadThread : downloadPartThreads) {
+            completedBytes += downloadThread.getDownloadPartMetadata().getCompletedBytes();
+        }
+        return completedBytes;
+    }
+
+    /**
+     * Updates the progress of the download. Without a known size the progress is indeterminate,
+     * while the completed bytes still count up.
+     */
+    private void updateDownloadProgress() {
+        if (getDownloadMetadata().getSize() > 0) {
+            getDownloadMetadata().setProgress((double) getCompletedBytes() / getDownloadMetadata().getSize());
+        } else if (getDownloadMetadata().getSize() < 0) {
+            //A negative progress is shown as indeterminate.
+            getDownloadMetadata().setProgress(-1.0);
+        }
+    }
+
+    /**
+     * Returns the size of the file the parts join into.
+     * @param parts The parts to join.
+     * @return The size of the joined file in bytes.
+     * @throws IOException Exception is thrown if a part file cannot be read.
+     */
+    private long getJoinedSize(List<DownloadPartMetadata> parts) throws IOException {
+        long size = 0;
+        for (DownloadPartMetadata partMetadata : parts) {
+            Part part = partMetadata.getPart();
+            long length = Math.min(Files.size(Paths.get(partMetadata.getFilename())), part.getLength());
+            size = Math.max(size, part.getStartByte() + length);
+        }
+        return size;
+    }
+
+    private void updateJoinProgress(long joinedBytes) {
+        if (getDownloadMetadata().getSize() > 0) {
+            getDownloadMetadata().setProgress((double) joinedBytes / getDownloadMetadata().getSize());
         }
     }
 
     /**
      * Joins all the download part after the download is completed.
+     * Every part is copied into its own offset of the target file, several parts at a time.
+     * The file of a single part that holds the whole download, like a stream, becomes the target file without a copy.
+     * Outputs that write straight into the target file complete without a joining phase.
      */
     public void joinDownloadParts() {
         if (!isDownloaded()) {
             return;
         }
+        if (!verifyChecksum()) {
+            return;
+        }
+        if (!output.requiresJoin()) {
+            setStatus(DownloadStatus.COMPLETED);
+            return;
+        }
         setStatus(DownloadStatus.JOINING);
+        getDownloadMetadata().setProgress(0.0);
+        long joinStart = System.nanoTime();
 
-        try(BufferedOutputStream outFile = new BufferedOutputStream(new FileOutputStream(getDownloadMetadata().getFilename()))) {
-            for (DownloadPartThread downloadThread : downloadPartThreads) {
-                DownloadPartRunnable downloadPartRunnable = downloadThread.getDownloadPart();
-                try(BufferedInputStream inFile = new BufferedInputStream(new FileInputStream(downloadPartRunnable.getFilename()))){
-                    copyToStream(outFile, inFile);
-                }
+        List<DownloadPartMetadata> parts = getPartMetadatas();
+        if (parts.size() == 1 && parts.get(0).getPart().getStartByte() == 0) {
+            try {
+                Files.move(Paths.get(parts.get(0).getFilename()), Paths.get(getDownloadMetadata().getFilename()), StandardCopyOption.REPLACE_EXISTING);
+                metrics.recordJoin(System.nanoTime() - joinStart);
+                getDownloadMetadata().setProgress(1.0);
+                setStatus(DownloadStatus.COMPLETED);
+                return;
+            } catch (IOException ex) {
+                //The part is copied like any other if its file cannot be moved.
+                Logger.getLogger(DownloadRunnable.class.getName()).log(Level.WARNING, null, ex);
             }
+        }
+        int parallelism = Math.max(1, Math.min(parts.size(), JOIN_PARALLELISM));
+        ExecutorService joinExecutor = Executors.newFixedThreadPool(parallelism);
+        AtomicLong joinedBytes = new AtomicLong();
+        try (RandomAccessFile targetFile = new RandomAccessFile(getDownloadMetadata().getFilename(), "rw")) {
+            //Parts are copied out of order and transferFrom does not write past the end of the file.
+            targetFile.setLength(0);
+            targetFile.setLength(getJoinedSize(parts));
+            FileChannel target = targetFile.getChannel();
+            List<Future<?>> transfers = new ArrayList<>();
+            for (DownloadPartMetadata partMetadata : parts) {
+                transfers.add(joinExecutor.submit(() -> {
+                    transferPart(target, partMetadata, joinedBytes);
+                    return null;
+                }));
+            }
+            for (Future<?> transfer : transfers) {
+                transfer.get();
+            }
+            metrics.recordJoin(System.nanoTime() - joinStart);
             setStatus(DownloadStatus.COMPLETED);
             deleteDownloadPartFiles();
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
         } catch (IOException ex) {
+            setStatus(DownloadStatus.ERROR);
+            metrics.recordError(ex);
             Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (ExecutionException ex) {
+            setStatus(DownloadStatus.ERROR);
+            metrics.recordError(ex.getCause());
+            Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex.getCause());
+        } catch (InterruptedException ex) {
+            setStatus(DownloadStatus.ERROR);
+            Thread.currentThread().interrupt();
+            Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            joinExecutor.shutdownNow();
         }
 
     }
 
     /**
      * This loops is run until the download is completed.
+     * It wakes up as soon as a command arrives. While paused it only waits for commands.
      */
     public void downloadLoop(){
-        while (!isDownloaded()) {
+        //A split that was answered but not collected yet still holds a range that has to be downloaded.
+        while (invalidateStaleParts() || !isDownloaded() || !pendingSplits.isEmpty()) {
+            if (getStatus() == DownloadStatus.DOWNLOADING) {
+                fallBackToStream();
+            }
+            ControlChannel.Message message;
             try {
-                Thread.sleep(100);
+                long wait = getStatus() == DownloadStatus.PAUSED ? Long.MAX_VALUE : LOOP_INTERVAL_MILLIS;
+                message = channel.poll(wait, TimeUnit.MILLISECONDS);
             } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
                 setStatus(DownloadStatus.ERROR);
                 Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+            try {
+                checkSize();
+                checkParts();
+            } catch (IOException ex) {
+                //The ranges of the parts do not fit a file that changed its size, and a part that gave up
+                //leaves a range that cannot be downloaded, so the download fails as a whole. Its progress is kept.
+                this.stop();
+                this.joinThreads();
+                setStatus(DownloadStatus.ERROR);
+                if (ex instanceof SourceChangedException) {
+                    metrics.recordError(ex);
+                }
+                Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
+                return;
             }
-            if (!this.queueCommand.isEmpty()) {
-                DownloadAction.Command command = (DownloadAction.Command) this.queueCommand.poll();
-                switch (command) {
+            updateDownloadProgress();
+            journalProgress();
+            hashAhead();
+            balanceParts();
+            if (message != null) {
+                switch (message.getCommand()) {
                     case PAUSE:
                         this.pause();
-                        this.queueResponse.add(DownloadAction.Response.PAUSED);
+                        message.reply(DownloadAction.Response.PAUSED);
                         break;
                     case STOP:
                         this.stop();
                         this.joinThreads();
-                        this.queueResponse.add(DownloadAction.Response.STOPPED);
+                        //A range split off just before the stop would otherwise be lost from the saved download.
+                        collectSplits();
+                        message.reply(DownloadAction.Response.STOPPED);
                         return;
                     case RESUME:
                         this.resume();
-                        this.queueResponse.add(DownloadAction.Response.RESUMED);
+                        message.reply(DownloadAction.Response.RESUMED);
                         break;
                     default:
                         break;
@@ -350,11 +1194,42 @@ public class DownloadRunnable implements Runnable {
         if (getDownloadMetadata().getStatus() == DownloadStatus.COMPLETED) {
             return;
         }
-        this.initialize();
-        this.startDownloadPartThreads();
-        this.downloadLoop();
-        this.joinThreads();
-        this.joinDownloadParts();
+        context.getConnectionLimiter().register();
+        //The limiter follows changes to the limit of the download while it runs.
+        getDownloadMetadata().getRateLimitProperty().addListener(rateLimitListener);
+        bandwidthLimiter.setBytesPerSecond(getDownloadMetadata().getRateLimit());
+        try {
+            this.initialize();
+            //A download whose headers could not be requested has no parts to download or join.
+            if (getStatus() == DownloadStatus.STOPPED || getStatus() == DownloadStatus.ERROR) {
+                return;
+            }
+            this.startDownloadPartThreads();
+            this.downloadLoop();
+            this.cancelHedges();
+            this.joinThreads();
+            this.closeOutput();
+            this.joinDownloadParts();
+        } finally {
+            context.getConnectionLimiter().unregister();
+            getDownloadMetadata().getRateLimitProperty().removeListener(rateLimitListener);
+            for (Map.Entry<DownloadPartMetadata, ChangeListener<Long>> listener : checkpointListeners.entrySet()) {
+                listener.getKey().getCheckpointedBytesProperty().removeListener(listener.getValue());
+            }
+            checkpointListeners.clear();
+            channel.drain();
+        }
+    }
+
+    /**
+     * Closes the output once no download part writes to it anymore.
+     */
+    private void closeOutput() {
+        try {
+            output.close();
+        } catch (IOException ex) {
+            Logger.getLogger(DownloadRunnable.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
 }
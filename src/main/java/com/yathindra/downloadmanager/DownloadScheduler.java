@@ -0,0 +1,89 @@
+package com.yathindra.downloadmanager;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Admits downloads of a pool so that only a limited number run at the same time.
+ * Other downloads wait in a queue and are started in order as running downloads finish.
+ */
+public class DownloadScheduler {
+
+    public static final int DEFAULT_MAX_ACTIVE_DOWNLOADS = 4;
+
+    private final Deque<DownloadThread> queue = new ArrayDeque<>();
+    private final Set<DownloadThread> active = new HashSet<>();
+    private int maxActiveDownloads = DEFAULT_MAX_ACTIVE_DOWNLOADS;
+
+    /**
+     * Queues a download and starts it if a slot is free.
+     * @param downloadThread The download to run.
+     */
+    public synchronized void submit(DownloadThread downloadThread) {
+        downloadThread.getDownloadMetadata().setStatus(DownloadStatus.QUEUED);
+        queue.add(downloadThread);
+        startQueued();
+    }
+
+    /**
+     * Frees the slot of a download whose thread ended and starts the next queued download.
+     * @param downloadThread The download that finished.
+     */
+    public synchronized void finished(DownloadThread downloadThread) {
+        active.remove(downloadThread);
+        startQueued();
+    }
+
+    /**
+     * Removes a download from the queue before it was started.
+     * @param downloadThread The download to remove.
+     * @return If the download was still queued.
+     */
+    public synchronized boolean cancel(DownloadThread downloadThread) {
+        return queue.remove(downloadThread);
+    }
+
+    /**
+     * Changes the number of downloads that run at the same time.
+     * Running downloads above a lowered limit are not interrupted.
+     * @param maxActiveDownloads The new maximum number of running downloads.
+     */
+    public synchronized void setMaxActiveDownloads(int maxActiveDownloads) {
+        if (maxActiveDownloads < 1) {
+            throw new IllegalArgumentException("At least one download must be allowed to run: " + maxActiveDownloads);
+        }
+        this.maxActiveDownloads = maxActiveDownloads;
+        startQueued();
+    }
+
+    public synchronized int getMaxActiveDownloads() {
+        return maxActiveDownloads;
+    }
+
+    /**
+     * Checks if a download waits in the queue for a slot.
+     * @param downloadThread The download.
+     * @return If the download is queued.
+     */
+    public synchronized boolean isQueued(DownloadThread downloadThread) {
+        return queue.contains(downloadThread);
+    }
+
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    private void startQueued() {
+        while (active.size() < maxActiveDownloads && !queue.isEmpty()) {
+            DownloadThread downloadThread = queue.poll();
+            active.add(downloadThread);
+            downloadThread.thread.start();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.yathindra.downloadmanager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the metrics of a single download over JMX.
+ */
+public class DownloadStats implements DownloadStatsMXBean {
+
+    private final DownloadRunnable download;
+
+    /**
+     * Constructor.
+     * @param download The download whose metrics are exposed.
+     */
+    public DownloadStats(DownloadRunnable download) {
+        this.download = download;
+    }
+
+    @Override
+    public int getDownloadID() {
+        return download.getDownloadMetadata().getDownloadID();
+    }
+
+    @Override
+    public String getUrl() {
+        return download.getDownloadMetadata().getUrl().toString();
+    }
+
+    @Override
+    public String getStatus() {
+        return download.getStatus().toString();
+    }
+
+    @Override
+    public long getSize() {
+        return download.getDownloadMetadata().getSize();
+    }
+
+    @Override
+    public long getCompletedBytes() {
+        return download.getCompletedBytes();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return download.getMetrics().getBytesPerSecond();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return download.getMetrics().getTotalBytes();
+    }
+
+    @Override
+    public int getConnections() {
+        return download.getDownloadMetadata().getParts();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return download.getActiveConnections();
+    }
+
+    @Override
+    public long getRateLimit() {
+        return download.getDownloadMetadata().getRateLimit();
+    }
+
+    @Override
+    public long getRetries() {
+        return download.getMetrics().getRetries();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return download.getMetrics().getInvalidations();
+    }
+
+    @Override
+    public long getInvalidatedBytes() {
+        return download.getMetrics().getInvalidatedBytes();
+    }
+
+    @Override
+    public long getHedges() {
+        return download.getMetrics().getHedges();
+    }
+
+    @Override
+    public long getHedgesWon() {
+        return download.getMetrics().getHedgesWon();
+    }
+
+    @Override
+    public double getHedgeSavedMillis() {
+        return download.getMetrics().getHedgeSavedMillis();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return download.getMetrics().getErrorCount();
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        return download.getMetrics().getErrors();
+    }
+
+    @Override
+    public double getAverageTimeToFirstByteMillis() {
+        return download.getMetrics().getAverageTimeToFirstByteMillis();
+    }
+
+    @Override
+    public double getJoinMillis() {
+        return download.getMetrics().getJoinMillis();
+    }
+
+    @Override
+    public Map<String, Long> getMirrorBytes() {
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        for (Mirror mirror : download.getMirrors()) {
+            bytes.put(mirror.toString(), mirror.getTotalBytes());
+        }
+        return bytes;
+    }
+
+    @Override
+    public Map<String, Double> getMirrorBytesPerSecond() {
+        Map<String, Double> rates = new LinkedHashMap<>();
+        for (Mirror mirror : download.getMirrors()) {
+            rates.put(mirror.toString(), mirror.getBytesPerSecond());
+        }
+        return rates;
+    }
+
+    @Override
+    public Map<String, Long> getMirrorErrors() {
+        Map<String, Long> errors = new LinkedHashMap<>();
+        for (Mirror mirror : download.getMirrors()) {
+            errors.put(mirror.toString(), mirror.getErrorCount());
+        }
+        return errors;
+    }
+
+    @Override
+    public Map<String, String> getMirrorStates() {
+        Map<String, String> states = new LinkedHashMap<>();
+        for (Mirror mirror : download.getMirrors()) {
+            //A source that serves the file but gets no requests for now is shown as held back.
+            boolean heldBack = mirror.getState() == Mirror.State.ACTIVE && !mirror.isUsable();
+            states.put(mirror.toString(), heldBack ? "HELD_BACK" : mirror.getState().toString());
+        }
+        return states;
+    }
+}
@@ -0,0 +1,57 @@
+package com.yathindra.downloadmanager;
+
+import java.util.Map;
+
+/**
+ * The metrics of a single download as seen over JMX.
+ */
+public interface DownloadStatsMXBean {
+
+    int getDownloadID();
+
+    String getUrl();
+
+    String getStatus();
+
+    long getSize();
+
+    long getCompletedBytes();
+
+    double getBytesPerSecond();
+
+    long getTotalBytes();
+
+    int getConnections();
+
+    int getActiveConnections();
+
+    long getRateLimit();
+
+    long getRetries();
+
+    long getInvalidations();
+
+    long getInvalidatedBytes();
+
+    long getHedges();
+
+    long getHedgesWon();
+
+    double getHedgeSavedMillis();
+
+    long getErrorCount();
+
+    Map<String, Long> getErrors();
+
+    double getAverageTimeToFirstByteMillis();
+
+    double getJoinMillis();
+
+    Map<String, Long> getMirrorBytes();
+
+    Map<String, Double> getMirrorBytesPerSecond();
+
+    Map<String, Long> getMirrorErrors();
+
+    Map<String, String> getMirrorStates();
+}
@@ -2,6 +2,7 @@ package com.yathindra.downloadmanager;
 
 public enum DownloadStatus{
     NEW,
+    QUEUED,
     STARTING,
     DOWNLOADING,
     PAUSED,
@@ -2,11 +2,17 @@ package com.yathindra.downloadmanager;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
+import javafx.beans.property.ObjectPropertyBase;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,6 +22,7 @@ public class DownloadStorage {
     private final String filename = "history.dat";
     private final static String DEFAULT_PATH = "./";
     private final String serializedFileDir;
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     public DownloadStorage() {
         this(DEFAULT_PATH);
@@ -49,14 +56,73 @@ public class DownloadStorage {
 
     }
 
+    /**
+     * Creates the XStream object that reads and writes the history.
+     * @return The configured XStream object.
+     */
+    private static XStream newXStream() {
+        XStream xstream = new XStream(new StaxDriver());
+        //XStream only reads the types it is allowed to, which are the download classes and their properties.
+        xstream.allowTypesByWildcard(new String[]{"com.yathindra.downloadmanager.*", "javafx.beans.property.*"});
+        //Listeners of the properties belong to the running downloads and are not saved.
+        xstream.omitField(ObjectPropertyBase.class, "helper");
+        return xstream;
+    }
+
+    /**
+     * Returns the path of the file the downloads are saved to.
+     * @return The path of the history file.
+     */
+    public String getPath() {
+        return serializedFileDir + filename;
+    }
+
     /**
      * Saves the current list of downloads to the disk.
+     * The list is written to a temporary file which then replaces the history, so a crash leaves either the old or the new history.
      */
     public void save() {
-        XStream xstream = new XStream(new StaxDriver());
-        String xmlContent = xstream.toXML(downloads);
-        try (OutputStreamWriter file = new OutputStreamWriter(new FileOutputStream(serializedFileDir + filename), StandardCharsets.UTF_8)) {
-            file.write(xmlContent);
+        save(writer -> {
+            for (DownloadInfo download : downloads) {
+                writer.write(download);
+            }
+        });
+    }
+
+    /**
+     * Saves downloads that are encoded already, in place of the list of downloads.
+     * @param encoded The downloads, each encoded with {@link HistoryFormat#encode(DownloadInfo)}.
+     */
+    public void saveEncoded(List<byte[]> encoded) {
+        save(writer -> {
+            for (byte[] download : encoded) {
+                writer.write(download);
+            }
+        });
+    }
+
+    /**
+     * Writes the downloads of a history.
+     */
+    private interface HistoryWriter {
+        void writeTo(HistoryFormat.Writer writer) throws IOException;
+    }
+
+    private void save(HistoryWriter content) {
+        Path target = Paths.get(getPath());
+        Path temporary = Paths.get(getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            BufferedOutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+            HistoryFormat.Writer writer = new HistoryFormat.Writer(buffered);
+            content.writeTo(writer);
+            writer.finish();
+            out.getFD().sync();
+        } catch (IOException ex) {
+            Logger.getLogger(DownloadStorage.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException ex) {
             Logger.getLogger(DownloadStorage.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -66,23 +132,69 @@ public class DownloadStorage {
      * Creates an empty file to store download information.
      */
     public void createNewFile() {
-        String xmlContent="<?xml version=\"1.0\" ?><list></list>";
-        try (OutputStreamWriter file = new OutputStreamWriter(new FileOutputStream(serializedFileDir + filename), StandardCharsets.UTF_8)) {
-            file.write(xmlContent);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(getPath()))) {
+            new HistoryFormat.Writer(out).finish();
         } catch (IOException ex) {
             Logger.getLogger(DownloadStorage.class.getName()).log(Level.SEVERE, null, ex);
         }
 
     }
 
+    /**
+     * Reads the downloads from the disk one at a time, without keeping them.
+     * A history that is cut off is read up to the last complete download.
+     * @param consumer Receives every download in the order they were saved.
+     * @throws IOException Exception is thrown if the history cannot be read.
+     */
+    public void read(Consumer<DownloadInfo> consumer) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(getPath()), BUFFER_SIZE)) {
+            if (!HistoryFormat.isBinary(in)) {
+                migrate(in).forEach(consumer);
+                return;
+            }
+            HistoryFormat.Reader reader = new HistoryFormat.Reader(in);
+            try {
+                for (DownloadInfo download = reader.read(); download != null; download = reader.read()) {
+                    consumer.accept(download);
+                }
+            } catch (EOFException ex) {
+                Logger.getLogger(DownloadStorage.class.getName()).log(Level.WARNING, "The download history is cut off", ex);
+            }
+        }
+    }
+
+    /**
+     * Reads a history saved as XML by earlier versions and saves it again in the binary format.
+     * The XML history is kept next to the new one.
+     * @param in The stream of the XML history.
+     * @return The downloads of the history.
+     */
+    @SuppressWarnings("unchecked")
+    private List<DownloadInfo> migrate(InputStream in) throws IOException {
+        List<DownloadInfo> legacy;
+        try (InputStreamReader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            legacy = (List<DownloadInfo>) newXStream().fromXML(reader);
+        }
+        if (legacy == null) {
+            legacy = new ArrayList<>();
+        }
+        Files.copy(Paths.get(getPath()), Paths.get(getPath() + ".xml"), StandardCopyOption.REPLACE_EXISTING);
+        List<DownloadInfo> current = downloads;
+        downloads = legacy;
+        save();
+        downloads = current;
+        Logger.getLogger(DownloadStorage.class.getName()).log(Level.INFO, "Migrated {0} downloads to the binary history", legacy.size());
+        return legacy;
+    }
+
     /**
      * Loads the download list from the disk.
      */
     public void load() {
-        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(serializedFileDir + filename), StandardCharsets.UTF_8)) {
-
-            XStream xstream = new XStream(new StaxDriver());
-            downloads = (List<DownloadInfo>) xstream.fromXML(reader);
+        List<DownloadInfo> loaded = new ArrayList<>();
+        try {
+            read(loaded::add);
+            downloads = loaded;
         } catch (FileNotFoundException ex) {
             createNewFile();
         } catch (IOException ex) {
@@ -2,22 +2,36 @@ package com.yathindra.downloadmanager;
 
 import javafx.beans.property.SimpleObjectProperty;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class DownloadThread {
 
     public SimpleObjectProperty<DownloadMetadata> downloadMetadata;
     public SimpleObjectProperty<DownloadRunnable> download;
     public Thread thread;
-    public ConcurrentLinkedQueue queueCommand;
-    public ConcurrentLinkedQueue queueResponse;
+    public ControlChannel channel;
+    //The history record of a download that has not been started since it was loaded. Its parts are decoded when it starts.
+    private byte[] savedRecord;
 
-    public DownloadThread(DownloadMetadata downloadMetadata, DownloadRunnable downloadRunnable, Thread thread, ConcurrentLinkedQueue queueCommand, ConcurrentLinkedQueue queueResponse) {
+    public DownloadThread(DownloadMetadata downloadMetadata, DownloadRunnable downloadRunnable, Thread thread, ControlChannel channel) {
         this.downloadMetadata = new SimpleObjectProperty<>(downloadMetadata);
         this.download = new SimpleObjectProperty<>(downloadRunnable);
         this.thread = thread;
-        this.queueCommand = queueCommand;
-        this.queueResponse = queueResponse;
+        this.channel = channel;
+    }
+
+    /**
+     * Constructor for a download from the history. Its runnable and thread are created once it is started.
+     * @param downloadMetadata The metadata of the download.
+     * @param savedRecord The download as encoded in the history, or null for a new download without parts.
+     */
+    public DownloadThread(DownloadMetadata downloadMetadata, byte[] savedRecord) {
+        this(downloadMetadata, null, null, null);
+        this.savedRecord = savedRecord;
     }
     
     
@@ -27,4 +41,51 @@ public class DownloadThread {
     public DownloadMetadata getDownloadMetadata() {
         return downloadMetadata.getValue();
     }
+
+    /**
+     * Checks if the download was started since it was created or loaded.
+     * @return If the download has a runnable.
+     */
+    public boolean isStarted() {
+        return getDownload() != null;
+    }
+
+    /**
+     * Checks if the thread of the download is running.
+     * @return If the download is running.
+     */
+    public boolean isAlive() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Returns the parts of the download, from its runnable once it was started.
+     * The parts of a download that was not started are decoded from its history record on every call.
+     * @return The metadata of the parts.
+     */
+    public List<DownloadPartMetadata> getPartMetadatas() {
+        if (isStarted()) {
+            return getDownload().getPartMetadatas();
+        }
+        if (savedRecord == null) {
+            return new ArrayList<>();
+        }
+        try {
+            List<DownloadPartMetadata> partMetadatas = HistoryFormat.decode(savedRecord).downloadPartMetadata;
+            for (DownloadPartMetadata partMetadata : partMetadatas) {
+                partMetadata.setDownloadMetadata(getDownloadMetadata());
+            }
+            return partMetadatas;
+        } catch (IOException ex) {
+            Logger.getLogger(DownloadThread.class.getName()).log(Level.SEVERE, null, ex);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Drops the history record once the runnable of the download holds its parts.
+     */
+    void clearSavedRecord() {
+        savedRecord = null;
+    }
 }
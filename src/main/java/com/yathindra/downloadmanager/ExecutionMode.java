@@ -0,0 +1,15 @@
+package com.yathindra.downloadmanager;
+
+/**
+ * The kind of threads downloads and download parts run on.
+ */
+public enum ExecutionMode {
+    /**
+     * Every download and part runs on its own platform thread.
+     */
+    PLATFORM,
+    /**
+     * Every download and part runs on a virtual thread. Needs a build on Java 21 or later.
+     */
+    VIRTUAL
+}
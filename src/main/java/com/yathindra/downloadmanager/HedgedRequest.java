@@ -0,0 +1,210 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A duplicate request for the remaining range of a part that lags behind near the end of a download.
+ * The hedge downloads the range into memory on a connection of its own and never writes to the output itself.
+ * If it has the whole range first, it hands the bytes to the part and breaks off the response of the part, which
+ * writes the bytes from its own thread and completes. If the part finishes first, the hedge is cancelled and its
+ * bytes are dropped, so either way every byte of the output is written by the thread of its part.
+ * A download with mirrors sends the hedge to another source than the one the part is downloading from.
+ */
+public class HedgedRequest implements Runnable {
+
+    private final DownloadPartRunnable part;
+    private final DownloadMetadata downloadMetadata;
+    private final long startByte;
+    private final long endByte;
+    private final Transport transport;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final MirrorSet mirrors;
+    //The time the race with the part started.
+    private final long startNanos;
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+    private volatile byte[] data;
+    //The bytes the part took from the hedge, which it did not have to download itself.
+    private volatile long takenBytes = -1;
+    private volatile long takenNanos;
+
+    /**
+     * Constructor.
+     * @param part The part whose remaining range is requested again.
+     * @param startByte The first byte of the range, which the part has not written yet.
+     * @param endByte The last byte of the range.
+     * @param transport The transport the hedge requests the range with.
+     * @param bandwidthLimiter The limiter of the download, which the hedge shares with the parts.
+     * @param mirrors The sources of the download.
+     */
+    public HedgedRequest(DownloadPartRunnable part, long startByte, long endByte, Transport transport, BandwidthLimiter bandwidthLimiter, MirrorSet mirrors) {
+        this.part = part;
+        this.downloadMetadata = part.getMetadata().downloadMetadata;
+        this.startByte = startByte;
+        this.endByte = endByte;
+        this.transport = transport;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.mirrors = mirrors;
+        this.startNanos = System.nanoTime();
+    }
+
+    public long getStartByte() {
+        return startByte;
+    }
+
+    public long getEndByte() {
+        return endByte;
+    }
+
+    /**
+     * Returns the bytes of the range once the hedge received all of them.
+     * @return The bytes from the start to the end byte, or null.
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Checks if the hedge ended, either with the whole range or without it.
+     * @return If the thread of the hedge is done.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Checks if the part completed with the bytes of the hedge.
+     * @return If the hedge won the race.
+     */
+    public boolean isWon() {
+        return takenBytes >= 0;
+    }
+
+    /**
+     * Returns the bytes the part took from the hedge instead of downloading them.
+     * @return The number of bytes, or -1 if the hedge did not win.
+     */
+    public long getTakenBytes() {
+        return takenBytes;
+    }
+
+    /**
+     * Records that the part wrote the bytes of the hedge from its current position to its end.
+     * Called by the thread of the part.
+     * @param bytes The number of bytes the part took.
+     */
+    void taken(long bytes) {
+        takenNanos = System.nanoTime();
+        takenBytes = bytes;
+    }
+
+    /**
+     * Returns how much sooner the part completed than it would have on its own.
+     * The part would have needed the bytes it took at the pace it kept itself from the start of the race until it took them.
+     * A part that made no progress in that time has no pace to go by, so no time is credited for it.
+     * @return The saved time in nanoseconds, or 0 if the hedge did not win or the part made no progress.
+     */
+    public long getSavedNanos() {
+        long taken = takenBytes;
+        long raceBytes = endByte - startByte + 1 - taken;
+        if (taken < 0 || raceBytes <= 0) {
+            return 0;
+        }
+        return (long) ((double) taken * (takenNanos - startNanos) / raceBytes);
+    }
+
+    /**
+     * Cancels the hedge. It stops reading at the next read and drops what it has.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            byte[] bytes = download();
+            if (bytes != null && !cancelled) {
+                data = bytes;
+                part.offerHedge(this);
+            }
+        } catch (CircuitOpenException ex) {
+            //The part keeps going on its own while the host is held back.
+        } catch (IOException ex) {
+            //The part keeps going on its own, so a failed hedge is no error of the download.
+            Logger.getLogger(HedgedRequest.class.getName()).log(Level.WARNING, null, ex);
+        } finally {
+            finished = true;
+        }
+    }
+
+    /**
+     * Requests the range and reads all of it, unless the hedge is cancelled.
+     * The range is requested with the validator of its source as If-Range like the ranges of the parts,
+     * and the hedge gives up on an answer that is not the range of the same version of the file.
+     * @return The bytes of the range, or null if the hedge was cancelled or got another answer.
+     * @throws IOException Exception is thrown if the range could not be downloaded.
+     */
+    private byte[] download() throws IOException {
+        Mirror mirror = mirrors.choose(part.getSource());
+        try {
+            return download(mirror);
+        } finally {
+            mirror.requestEnded();
+        }
+    }
+
+    private byte[] download(Mirror mirror) throws IOException {
+        String validator = mirror.getValidator();
+        CircuitBreaker circuitBreaker = mirror.getCircuitBreaker();
+        circuitBreaker.acquire();
+        TransportResponse response;
+        try {
+            response = transport.get(mirror.getUrl(), startByte, endByte, validator, downloadMetadata.getTimeout());
+        } catch (IOException ex) {
+            if (RetryPolicy.isRetryable(ex)) {
+                circuitBreaker.recordFailure(ex instanceof HttpStatusException ? ((HttpStatusException) ex).getRetryAfterMillis() : -1);
+            } else {
+                circuitBreaker.recordSuccess();
+            }
+            throw ex;
+        }
+        circuitBreaker.recordSuccess();
+        try (response) {
+            String current = response.getValidator();
+            if (response.getStatusCode() != 206 || response.getResourceLength() != downloadMetadata.getSize()
+                    || (validator != null && current != null && !current.equals(validator))) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) (endByte - startByte + 1)];
+            InputStream body = response.getBody();
+            int filled = 0;
+            while (filled < bytes.length) {
+                if (cancelled) {
+                    return null;
+                }
+                int read = body.read(bytes, filled, bandwidthLimiter.getChunkSize(bytes.length - filled));
+                if (read == -1) {
+                    throw new IOException("Connection closed with " + (bytes.length - filled) + " bytes of the hedged range " + startByte + "-" + endByte + " left");
+                }
+                filled += read;
+                mirror.addBytes(read);
+                long throttle = bandwidthLimiter.reserve(read);
+                if (throttle > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(throttle);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while throttled");
+                    }
+                }
+            }
+            return bytes;
+        }
+    }
+}
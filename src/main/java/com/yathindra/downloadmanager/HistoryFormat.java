@@ -0,0 +1,302 @@
+package com.yathindra.downloadmanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary format of the download history.
+ * A history starts with a magic number and the version of the format, followed by one record per download and
+ * an end marker. Each record is prefixed with its length, so downloads are read and written one at a time and
+ * a reader can skip the fields that a newer version appends to a record.
+ * Fields are read by the version they were added in, so every older history stays readable.
+ */
+public class HistoryFormat {
+
+    //"DMHS", which can never start an XML history.
+    static final int MAGIC = 0x444D4853;
+    static final short VERSION = 4;
+    private static final int END = -1;
+
+    /**
+     * Checks if a stream starts with a binary history. The stream is reset to where it was.
+     * @param in The stream, which must support mark and reset.
+     * @return If the stream holds a binary history.
+     * @throws IOException Exception is thrown if the stream cannot be read.
+     */
+    public static boolean isBinary(InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            return new DataInputStream(in).readInt() == MAGIC;
+        } catch (EOFException ex) {
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Writes downloads to a history one at a time.
+     */
+    public static class Writer {
+
+        private final DataOutputStream out;
+        //Every record is put together here first to learn its length. The buffer is reused for all records.
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+        private final DataOutputStream recordOut = new DataOutputStream(record);
+
+        /**
+         * Constructor. Writes the header of the history.
+         * @param out The stream to write to.
+         * @throws IOException Exception is thrown if the stream cannot be written.
+         */
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(MAGIC);
+            this.out.writeShort(VERSION);
+        }
+
+        /**
+         * Writes a download with its parts.
+         * @param download The download.
+         * @throws IOException Exception is thrown if the stream cannot be written.
+         */
+        public void write(DownloadInfo download) throws IOException {
+            record.reset();
+            writeDownload(recordOut, download);
+            out.writeInt(record.size());
+            record.writeTo(out);
+        }
+
+        /**
+         * Writes a download that was encoded with {@link #encode(DownloadInfo)} already.
+         * @param encoded The fields of the download in the current version of the format.
+         * @throws IOException Exception is thrown if the stream cannot be written.
+         */
+        public void write(byte[] encoded) throws IOException {
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+
+        /**
+         * Writes the end marker. The history is incomplete without it.
+         * @throws IOException Exception is thrown if the stream cannot be written.
+         */
+        public void finish() throws IOException {
+            out.writeInt(END);
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the downloads of a history one at a time.
+     */
+    public static class Reader {
+
+        private final DataInputStream in;
+        private final short version;
+        private byte[] record = new byte[512];
+
+        /**
+         * Constructor. Reads the header of the history.
+         * @param in The stream to read from.
+         * @throws IOException Exception is thrown if the stream is not a history of a known version.
+         */
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("Not a binary download history");
+            }
+            this.version = this.in.readShort();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported download history version " + version);
+            }
+        }
+
+        public short getVersion() {
+            return version;
+        }
+
+        /**
+         * Reads the next download.
+         * @return The download, or null at the end of the history.
+         * @throws IOException Exception is thrown if the history is cut off or corrupt.
+         */
+        public DownloadInfo read() throws IOException {
+            int length = in.readInt();
+            if (length == END) {
+                return null;
+            }
+            if (length < 0) {
+                throw new IOException("Corrupt download history record of length " + length);
+            }
+            if (record.length < length) {
+                record = new byte[Math.max(length, record.length * 2)];
+            }
+            in.readFully(record, 0, length);
+            return readDownload(new DataInputStream(new ByteArrayInputStream(record, 0, length)), version);
+        }
+    }
+
+    /**
+     * Encodes a download with its parts as the record of a history, without the length in front of it.
+     * @param download The download.
+     * @return The fields of the download in the current version of the format.
+     * @throws IOException Exception is thrown if the download cannot be encoded.
+     */
+    public static byte[] encode(DownloadInfo download) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+        writeDownload(new DataOutputStream(record), download);
+        return record.toByteArray();
+    }
+
+    /**
+     * Decodes a download encoded with {@link #encode(DownloadInfo)}.
+     * @param encoded The fields of the download in the current version of the format.
+     * @return The download with its parts.
+     * @throws IOException Exception is thrown if the record is cut off or corrupt.
+     */
+    public static DownloadInfo decode(byte[] encoded) throws IOException {
+        return readDownload(new DataInputStream(new ByteArrayInputStream(encoded)), VERSION);
+    }
+
+    /**
+     * Writes the fields of a download without the length of its record.
+     * @param out The stream to write to.
+     * @param download The download.
+     * @throws IOException Exception is thrown if the stream cannot be written.
+     */
+    static void writeDownload(DataOutputStream out, DownloadInfo download) throws IOException {
+        DownloadMetadata metadata = download.downloadMetadata;
+        out.writeUTF(metadata.getUrl().toString());
+        out.writeInt(metadata.getDownloadID());
+        out.writeUTF(metadata.getFilename());
+        boolean hasSize = metadata.getSizeProperty().getValue() != null;
+        out.writeBoolean(hasSize);
+        if (hasSize) {
+            out.writeLong(metadata.getSize());
+        }
+        out.writeBoolean(metadata.getAccelerated());
+        out.writeUTF(metadata.getStatus().name());
+        out.writeInt(metadata.getParts());
+        out.writeUTF(metadata.getTransport().name());
+        out.writeLong(metadata.getRateLimit());
+        out.writeUTF(metadata.getOutputMode().name());
+        List<DownloadPartMetadata> parts = download.downloadPartMetadata;
+        out.writeInt(parts == null ? 0 : parts.size());
+        if (parts != null) {
+            for (DownloadPartMetadata partMetadata : parts) {
+                writePart(out, partMetadata);
+            }
+        }
+        //Version 2
+        writeNullableUTF(out, metadata.getExpectedChecksum());
+        writeNullableUTF(out, metadata.getChecksum());
+        //Version 3
+        writeNullableUTF(out, metadata.getEtag());
+        writeNullableUTF(out, metadata.getLastModified());
+        if (parts != null) {
+            for (DownloadPartMetadata partMetadata : parts) {
+                writeNullableUTF(out, partMetadata.getValidator());
+            }
+        }
+        //Version 4
+        out.writeInt(metadata.getMirrors().size());
+        for (URL mirror : metadata.getMirrors()) {
+            out.writeUTF(mirror.toString());
+        }
+    }
+
+    private static void writePart(DataOutputStream out, DownloadPartMetadata partMetadata) throws IOException {
+        out.writeInt(partMetadata.getPartID());
+        out.writeUTF(partMetadata.getStatus().name());
+        out.writeUTF(partMetadata.getFilename());
+        out.writeLong(partMetadata.getPart().getStartByte());
+        out.writeLong(partMetadata.getPart().getEndByte());
+        out.writeLong(partMetadata.getCompletedBytes());
+        out.writeLong(partMetadata.getCheckpointedBytes());
+        //Parts of histories from before retries and splits were counted have neither field.
+        out.writeInt(partMetadata.retries == null ? 0 : partMetadata.retries.getValue());
+        Integer parentPartID = partMetadata.parentPartID == null ? null : partMetadata.parentPartID.getValue();
+        out.writeInt(parentPartID == null ? -1 : parentPartID);
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Reads the fields of a download written by {@link #writeDownload(DataOutputStream, DownloadInfo)}.
+     * @param in The stream to read from.
+     * @param version The version of the format the download was written in.
+     * @return The download.
+     * @throws IOException Exception is thrown if the fields are cut off or corrupt, or the version is not known.
+     */
+    static DownloadInfo readDownload(DataInputStream in, short version) throws IOException {
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported download history version " + version);
+        }
+        DownloadMetadata metadata = new DownloadMetadata(in.readUTF(), in.readInt());
+        metadata.setFilename(in.readUTF());
+        if (in.readBoolean()) {
+            metadata.setSize(in.readLong());
+        }
+        metadata.setAccelerated(in.readBoolean());
+        metadata.setStatus(DownloadStatus.valueOf(in.readUTF()));
+        metadata.setConnections(in.readInt());
+        metadata.setTransport(TransportType.valueOf(in.readUTF()));
+        metadata.setRateLimit(in.readLong());
+        metadata.setOutputMode(OutputMode.valueOf(in.readUTF()));
+        int partCount = in.readInt();
+        List<DownloadPartMetadata> parts = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+            int partID = in.readInt();
+            DownloadStatus status = DownloadStatus.valueOf(in.readUTF());
+            String filename = in.readUTF();
+            Part part = new Part(in.readLong(), in.readLong());
+            DownloadPartMetadata partMetadata = new DownloadPartMetadata(metadata, partID, part);
+            partMetadata.setStatus(status);
+            partMetadata.filename = filename;
+            partMetadata.setCompletedBytes(in.readLong());
+            partMetadata.setCheckpointedBytes(in.readLong());
+            partMetadata.retries.setValue(in.readInt());
+            int parentPartID = in.readInt();
+            if (parentPartID >= 0) {
+                partMetadata.parentPartID.setValue(parentPartID);
+            }
+            parts.add(partMetadata);
+        }
+        if (version >= 2) {
+            metadata.setExpectedChecksum(readNullableUTF(in));
+            metadata.setChecksum(readNullableUTF(in));
+        }
+        if (version >= 3) {
+            metadata.setValidators(readNullableUTF(in), readNullableUTF(in));
+            for (DownloadPartMetadata partMetadata : parts) {
+                partMetadata.setValidator(readNullableUTF(in));
+            }
+        }
+        if (version >= 4) {
+            int mirrorCount = in.readInt();
+            for (int i = 0; i < mirrorCount; i++) {
+                metadata.addMirror(in.readUTF());
+            }
+        }
+        return new DownloadInfo(metadata, parts);
+    }
+}
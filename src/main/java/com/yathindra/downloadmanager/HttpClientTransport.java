@@ -0,0 +1,124 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Makes requests through non-blocking {@link HttpClient}s, one per host, held by the connection pool.
+ * A client keeps its connections alive between requests and prefers HTTP/2, so the range requests of all
+ * parts for one host share a single connection when the server supports it. Once a host has had no
+ * connection in use for the idle timeout of the pool, its client is closed along with its connections.
+ * Bodies are delivered by a {@link TimedBodySubscriber} as a stream that the part reads chunk by chunk,
+ * so pausing, splitting and checkpointing still happen at chunk boundaries, and a read that gets no data
+ * within the timeout fails instead of waiting forever.
+ */
+public class HttpClientTransport implements Transport {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(5000);
+
+    private final ConnectionPool connectionPool;
+
+    /**
+     * Constructor.
+     * @param connectionPool The pool that leases the connections and holds the clients of the hosts.
+     */
+    public HttpClientTransport(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    private HttpClient newClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    private HttpRequest.Builder newRequest(URL url, int timeout) throws IOException {
+        try {
+            return HttpRequest.newBuilder(url.toURI()).timeout(Duration.ofMillis(timeout));
+        } catch (URISyntaxException ex) {
+            throw new IOException("Invalid URL " + url, ex);
+        }
+    }
+
+    /**
+     * Sends a request asynchronously and waits for the headers of the response.
+     * @param lease The lease of the connection to the host.
+     * @param request The request to send.
+     * @param handler The handler of the body.
+     * @param timeout The longest time to wait in milliseconds.
+     * @return The response whose body may still be arriving.
+     * @throws IOException Exception is thrown if the request fails or times out.
+     */
+    private <T> HttpResponse<T> send(ConnectionPool.Lease lease, HttpRequest request, HttpResponse.BodyHandler<T> handler, int timeout) throws IOException {
+        HttpClient client = lease.getClient(this::newClient);
+        CompletableFuture<HttpResponse<T>> response = client.sendAsync(request, handler);
+        try {
+            return response.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } catch (TimeoutException ex) {
+            //The exchange is cancelled, so it does not hold a connection or stream after the lease is released.
+            response.cancel(true);
+            throw new IOException("No response from " + request.uri() + " within " + timeout + " ms", ex);
+        } catch (InterruptedException ex) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.uri());
+        }
+    }
+
+    @Override
+    public TransportResponse head(URL url, int timeout) throws IOException {
+        HttpRequest request = newRequest(url, timeout).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        ConnectionPool.Lease lease = connectionPool.acquire(url, timeout);
+        try {
+            HttpResponse<Void> response = send(lease, request, HttpResponse.BodyHandlers.discarding(), timeout);
+            return new TransportResponse(response.statusCode(), name -> response.headers().firstValue(name).orElse(null), lease);
+        } catch (IOException | RuntimeException ex) {
+            lease.release(false);
+            throw ex;
+        }
+    }
+
+    @Override
+    public TransportResponse get(URL url, long startByte, long endByte, String ifRange, int timeout) throws IOException {
+        HttpRequest.Builder builder = newRequest(url, timeout).header("Range", Transport.rangeOf(startByte, endByte));
+        if (ifRange != null) {
+            builder.header("If-Range", ifRange);
+        }
+        HttpRequest request = builder.GET().build();
+        ConnectionPool.Lease lease = connectionPool.acquire(url, timeout);
+        try {
+            HttpResponse<InputStream> response = send(lease, request, info -> new TimedBodySubscriber(timeout), timeout);
+            if (response.statusCode() >= 400) {
+                response.body().close();
+                throw new HttpStatusException(url, response.statusCode(), response.headers().firstValue("Retry-After").orElse(null));
+            }
+            return new TransportResponse(response.statusCode(), name -> response.headers().firstValue(name).orElse(null), response.body(), lease);
+        } catch (IOException | RuntimeException ex) {
+            lease.release(false);
+            throw ex;
+        }
+    }
+}
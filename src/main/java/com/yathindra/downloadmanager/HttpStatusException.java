@@ -0,0 +1,72 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Thrown when a server answers a request with an HTTP error.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    /**
+     * Constructor.
+     * @param url The URL of the request.
+     * @param statusCode The status code of the response.
+     * @param retryAfter The Retry-After header of the response, or null.
+     */
+    public HttpStatusException(URL url, int statusCode, String retryAfter) {
+        super("Server returned HTTP " + statusCode + " for " + url);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = parseRetryAfter(retryAfter);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns how long the server asked to wait before the next request.
+     * @return The time in milliseconds, or -1 if the server did not say.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Checks if the request may succeed when it is made again.
+     * Timeouts, rate limits and server errors pass, while other client errors such as 404 stay.
+     * @return If the request is worth retrying.
+     */
+    public boolean isRetryable() {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Parses a Retry-After header, which holds either a number of seconds or an HTTP date.
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException ex) {
+            //Not a number of seconds, so it has to be a date.
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes every part into memory mapped windows of the target file.
+ * A part only keeps one window of at most {@link #WINDOW_SIZE} bytes mapped and moves it along its range,
+ * so very large files do not exhaust the address space.
+ * Windows are forced to disk when they are left behind and whenever the part checkpoints.
+ */
+public class MappedOutput extends PositionalOutput {
+
+    public static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    public MappedOutput(DownloadMetadata downloadMetadata) {
+        super(downloadMetadata);
+    }
+
+    @Override
+    public PartSink openPart(DownloadPartMetadata partMetadata) throws IOException {
+        FileChannel target = getChannel();
+        Part part = partMetadata.getPart();
+        long start = part.getStartByte() + partMetadata.getCompletedBytes();
+        return new PartSink() {
+            private long position = start;
+            private MappedByteBuffer window;
+
+            /**
+             * Maps the next window of the part range, forcing the previous one.
+             * @throws IOException Exception is thrown if the part writes past its range.
+             */
+            private void remap() throws IOException {
+                flush();
+                long limit = part.getEndByte() + 1;
+                if (downloadMetadata.getSize() > 0) {
+                    limit = Math.min(limit, downloadMetadata.getSize());
+                }
+                long length = Math.min(WINDOW_SIZE, limit - position);
+                if (length <= 0) {
+                    throw new IOException("Part " + partMetadata.partID.getValue() + " wrote past the end of its range " + part);
+                }
+                window = target.map(FileChannel.MapMode.READ_WRITE, position, length);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                while (length > 0) {
+                    if (window == null || !window.hasRemaining()) {
+                        remap();
+                    }
+                    int count = Math.min(length, window.remaining());
+                    window.put(buffer, offset, count);
+                    position += count;
+                    offset += count;
+                    length -= count;
+                }
+            }
+
+            @Override
+            public void flush() {
+                if (window != null) {
+                    window.force();
+                }
+            }
+
+            @Override
+            public void close() {
+                flush();
+                window = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,216 @@
+package com.yathindra.downloadmanager;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One of the equivalent sources of a download and what the download observed of it while it ran.
+ * The first source is the URL of the download, which defines the file. The other sources are mirrors, which are
+ * only used once their headers showed that they serve the same file, and are dropped once they stop doing so.
+ */
+public class Mirror {
+
+    //A mirror that failed this many requests in a row gets no new requests for a while.
+    static final int MAX_FAILURES_IN_ROW = 3;
+    private static final long BASE_DOWN_MILLIS = 1000;
+    private static final long MAX_DOWN_MILLIS = 60000;
+
+    /**
+     * The states of a source.
+     */
+    public enum State {
+        //The headers of the mirror were not checked yet.
+        UNCHECKED,
+        //The source serves the file of the download.
+        ACTIVE,
+        //The mirror serves another file, or none.
+        REJECTED
+    }
+
+    private final URL url;
+    private final DownloadMetadata downloadMetadata;
+    private final boolean primary;
+    private final CircuitBreaker circuitBreaker;
+    private volatile State state;
+    //The validator of the file on the mirror, which may differ from the one of the URL of the download.
+    private volatile String validator;
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicInteger active = new AtomicInteger();
+    private final TransferRate rate = new TransferRate();
+    private volatile double connectionBytesPerSecond;
+    private int failuresInRow;
+    private long downUntilNanos;
+
+    /**
+     * Constructor.
+     * @param url The URL of the source.
+     * @param downloadMetadata The metadata of the download.
+     * @param primary If the source is the URL of the download.
+     * @param circuitBreaker The circuit breaker of the host of the source.
+     */
+    public Mirror(URL url, DownloadMetadata downloadMetadata, boolean primary, CircuitBreaker circuitBreaker) {
+        this.url = url;
+        this.downloadMetadata = downloadMetadata;
+        this.primary = primary;
+        this.circuitBreaker = circuitBreaker;
+        this.state = primary ? State.ACTIVE : State.UNCHECKED;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public boolean isPrimary() {
+        return primary;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns the validator that is sent as If-Range to the source.
+     * @return The validator of the download for its URL, the validator of the file on a mirror, or null.
+     */
+    public String getValidator() {
+        return primary ? downloadMetadata.getValidator() : validator;
+    }
+
+    /**
+     * Checks the headers a mirror answered with against the download and starts or stops using the mirror.
+     * A mirror serves the same file if it has the same size and the same strong ETag or Last-Modified date
+     * as the URL of the download. Mirrors often have ETags of their own, so the date alone is enough.
+     * Without validators of the download only the size can be checked.
+     * @param response The response of the mirror, to a HEAD request or a range request.
+     * @return If the mirror serves the file of the download.
+     */
+    public boolean check(TransportResponse response) {
+        if (primary) {
+            return true;
+        }
+        String etag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        boolean sameSize = response.getResourceLength() == downloadMetadata.getSize();
+        boolean sameEtag = etag != null && !etag.startsWith("W/") && etag.equals(downloadMetadata.getEtag());
+        boolean sameDate = lastModified != null && lastModified.equals(downloadMetadata.getLastModified());
+        boolean unknown = downloadMetadata.getValidator() == null;
+        if (sameSize && (sameEtag || sameDate || unknown)) {
+            validator = DownloadMetadata.toValidator(etag, lastModified);
+            state = State.ACTIVE;
+            return true;
+        }
+        state = State.REJECTED;
+        return false;
+    }
+
+    /**
+     * Stops using a mirror that no longer serves the file of the download.
+     */
+    public void reject() {
+        if (!primary) {
+            state = State.REJECTED;
+        }
+    }
+
+    /**
+     * Checks if the source may get a new request.
+     * @return If the source serves the file, its host is not held back and it did not fail too often lately.
+     */
+    public synchronized boolean isUsable() {
+        return state == State.ACTIVE && !circuitBreaker.isOpen() && System.nanoTime() - downUntilNanos >= 0;
+    }
+
+    /**
+     * Records that a request to the source was sent. Every request must be ended.
+     */
+    public void requestStarted() {
+        requests.increment();
+        active.incrementAndGet();
+    }
+
+    public void requestEnded() {
+        active.decrementAndGet();
+    }
+
+    /**
+     * Records bytes received from the source.
+     * @param count The number of bytes.
+     */
+    public void addBytes(long count) {
+        bytes.add(count);
+    }
+
+    /**
+     * Records that the source delivered the body of a request.
+     */
+    public synchronized void recordSuccess() {
+        failuresInRow = 0;
+    }
+
+    /**
+     * Records a failed request. A source that keeps failing gets no new requests for a time that doubles with every
+     * further failure, so the parts move to the other sources.
+     */
+    public synchronized void recordFailure() {
+        errors.increment();
+        failuresInRow++;
+        if (failuresInRow >= MAX_FAILURES_IN_ROW) {
+            long downMillis = Math.min(MAX_DOWN_MILLIS, BASE_DOWN_MILLIS << Math.min(failuresInRow - MAX_FAILURES_IN_ROW, 10));
+            downUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(downMillis);
+        }
+    }
+
+    /**
+     * Measures the transfer rate of the source, in total and per connection.
+     * The rate per connection is kept while the source has no connection.
+     * @param nanos The time of the sample as given by {@link System#nanoTime()}.
+     */
+    public void sampleRate(long nanos) {
+        double bytesPerSecond = rate.update(bytes.sum(), nanos);
+        int connections = active.get();
+        if (connections > 0 && bytesPerSecond > 0) {
+            connectionBytesPerSecond = bytesPerSecond / connections;
+        }
+    }
+
+    public double getBytesPerSecond() {
+        return rate.getBytesPerSecond();
+    }
+
+    /**
+     * Returns the transfer rate of a single connection to the source.
+     * @return The rate in bytes per second, or 0 if it was not measured yet.
+     */
+    public double getConnectionBytesPerSecond() {
+        return connectionBytesPerSecond;
+    }
+
+    public long getTotalBytes() {
+        return bytes.sum();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    public int getActiveConnections() {
+        return active.get();
+    }
+
+    @Override
+    public String toString() {
+        return url.toString();
+    }
+}
@@ -0,0 +1,197 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The sources of a download: its URL and the mirrors that serve the same file.
+ * Every request of a part goes to the source chosen for it here. Connections are given to the sources in
+ * proportion to the throughput each of them delivers per connection, so a faster mirror gets more of the ranges
+ * and a source that slows down gets fewer. Sources that fail are skipped while others are usable.
+ */
+public class MirrorSet {
+
+    private final DownloadMetadata downloadMetadata;
+    private final DownloadContext context;
+    private final List<Mirror> mirrors;
+
+    /**
+     * Constructor.
+     * @param downloadMetadata The metadata of the download, whose URL is the first source.
+     * @param context The context of the pool, which holds the circuit breakers and the connection limit of the hosts.
+     */
+    public MirrorSet(DownloadMetadata downloadMetadata, DownloadContext context) {
+        this.downloadMetadata = downloadMetadata;
+        this.context = context;
+        List<Mirror> sources = new ArrayList<>();
+        sources.add(new Mirror(downloadMetadata.getUrl(), downloadMetadata, true, context.getCircuitBreaker(downloadMetadata.getUrl())));
+        for (URL url : downloadMetadata.getMirrors()) {
+            sources.add(new Mirror(url, downloadMetadata, false, context.getCircuitBreaker(url)));
+        }
+        this.mirrors = Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * Returns the sources, the URL of the download first.
+     * @return The sources of the download.
+     */
+    public List<Mirror> getMirrors() {
+        return mirrors;
+    }
+
+    public Mirror getPrimary() {
+        return mirrors.get(0);
+    }
+
+    /**
+     * Returns the number of sources that may get requests.
+     * @return The number of usable sources.
+     */
+    public int getUsableCount() {
+        int count = 0;
+        for (Mirror mirror : mirrors) {
+            if (mirror.isUsable()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Requests the headers of every mirror at once and checks them against the download.
+     * A mirror that does not answer is not used while the download runs.
+     * @param transport The transport of the download.
+     */
+    public void probe(Transport transport) {
+        List<Thread> threads = new ArrayList<>();
+        for (Mirror mirror : mirrors) {
+            if (mirror.getState() != Mirror.State.UNCHECKED) {
+                continue;
+            }
+            Thread thread = context.getExecutor().newThread(() -> probe(transport, mirror), "Mirror " + mirror);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void probe(Transport transport, Mirror mirror) {
+        try (TransportResponse response = transport.head(mirror.getUrl(), downloadMetadata.getTimeout())) {
+            if (response.getStatusCode() >= 400 || !mirror.check(response)) {
+                mirror.reject();
+                Logger.getLogger(MirrorSet.class.getName()).log(Level.WARNING, "Mirror {0} does not serve the file of the download", mirror);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(MirrorSet.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Chooses the source of a request and counts the request as started on it. The request must be ended.
+     * The usable source with the fewest connections for its rate per connection is chosen. A source that was not
+     * measured yet is expected to be as fast as the fastest one, so that it gets tried. Without a usable source
+     * the URL of the download is chosen, whose circuit breaker and retries hold the request back.
+     * A download without ranges streams from its URL only, since a mirror cannot be checked against a stream.
+     * @param avoid A source to choose only if no other one is usable, or null.
+     * @return The chosen source.
+     */
+    public synchronized Mirror choose(Mirror avoid) {
+        if (!downloadMetadata.getAccelerated()) {
+            getPrimary().requestStarted();
+            return getPrimary();
+        }
+        int maxPerHost = context.getMaxConnectionsPerHost();
+        double fastest = 1;
+        for (Mirror mirror : mirrors) {
+            fastest = Math.max(fastest, mirror.getConnectionBytesPerSecond());
+        }
+        Mirror best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (Mirror mirror : mirrors) {
+            if (!mirror.isUsable() || mirror.getActiveConnections() >= maxPerHost) {
+                continue;
+            }
+            double rate = mirror.getConnectionBytesPerSecond();
+            double load = (mirror.getActiveConnections() + 1) / (rate > 0 ? rate : fastest);
+            if (mirror == avoid) {
+                load = Double.MAX_VALUE / 2;
+            }
+            if (load < bestLoad) {
+                best = mirror;
+                bestLoad = load;
+            }
+        }
+        if (best == null) {
+            best = getPrimary();
+        }
+        best.requestStarted();
+        return best;
+    }
+
+    /**
+     * Measures the transfer rate of every source.
+     * @param nanos The time of the sample as given by {@link System#nanoTime()}.
+     */
+    public void sampleRates(long nanos) {
+        for (Mirror mirror : mirrors) {
+            mirror.sampleRate(nanos);
+        }
+    }
+
+    /**
+     * Finds the source that holds at least a whole connection more than its share, while another usable source
+     * holds less than its share. The share of a usable source follows its rate per connection, and a source that
+     * is not usable has no share.
+     * @return The source to move a part away from, or null if the connections are spread as they should be.
+     */
+    public synchronized Mirror findOverloaded() {
+        int maxPerHost = context.getMaxConnectionsPerHost();
+        double fastest = 1;
+        for (Mirror mirror : mirrors) {
+            fastest = Math.max(fastest, mirror.getConnectionBytesPerSecond());
+        }
+        int connections = 0;
+        double weights = 0;
+        for (Mirror mirror : mirrors) {
+            connections += mirror.getActiveConnections();
+            if (mirror.isUsable()) {
+                double rate = mirror.getConnectionBytesPerSecond();
+                weights += rate > 0 ? rate : fastest;
+            }
+        }
+        if (weights == 0) {
+            return null;
+        }
+        Mirror overloaded = null;
+        double maxExcess = 0;
+        boolean underloaded = false;
+        for (Mirror mirror : mirrors) {
+            double share = 0;
+            if (mirror.isUsable()) {
+                double rate = mirror.getConnectionBytesPerSecond();
+                share = connections * (rate > 0 ? rate : fastest) / weights;
+            }
+            double excess = mirror.getActiveConnections() - share;
+            if (excess <= -1 && mirror.getActiveConnections() < maxPerHost) {
+                underloaded = true;
+            }
+            if (excess >= 1 && excess > maxExcess) {
+                overloaded = mirror;
+                maxExcess = excess;
+            }
+        }
+        return underloaded ? overloaded : null;
+    }
+}
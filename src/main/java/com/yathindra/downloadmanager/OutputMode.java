@@ -0,0 +1,19 @@
+package com.yathindra.downloadmanager;
+
+/**
+ * The ways a download can write the data of its parts to disk.
+ */
+public enum OutputMode {
+    /**
+     * Every part writes its own part file. The part files are joined once all parts complete.
+     */
+    PART_FILES,
+    /**
+     * The target file is preallocated and every part writes at its own offset through a shared channel.
+     */
+    POSITIONAL,
+    /**
+     * The target file is preallocated and every part writes into memory mapped windows of its own range.
+     */
+    MAPPED
+}
@@ -1,8 +1,13 @@
 package com.yathindra.downloadmanager;
 
 public class Part{
+
+    //The end byte of a part whose download does not know its size yet. The part ends where its stream ends.
+    public static final long UNKNOWN_END = Long.MAX_VALUE - 1;
+
     long startByte;
-    long endByte;
+    //The end byte shrinks when the remaining range of the part is split off to another part.
+    volatile long endByte;
     
     public Part(long startByte,long endByte){
         this.startByte=startByte;
@@ -17,6 +22,45 @@ public class Part{
         return endByte;
     }
 
+    /**
+     * Checks if the part ends where its stream ends, since the size of its download is not known.
+     * @return If the end byte is unknown.
+     */
+    public boolean isEndUnknown() {
+        return endByte == UNKNOWN_END;
+    }
+
+    /**
+     * Ends a part whose end was unknown, once the size of the download is known.
+     * @param endByte The last byte of the download.
+     */
+    public void setEndByte(long endByte) {
+        this.endByte = endByte;
+    }
+
+    /**
+     * Returns the number of bytes in the range of the part.
+     * @return The length of the part
+     */
+    public long getLength() {
+        return endByte - startByte + 1;
+    }
+
+    /**
+     * Splits the range at the given byte.
+     * This part keeps the bytes before the split and the returned part covers the rest of the range.
+     * @param splitByte The first byte of the new part.
+     * @return The part that covers the range from the split byte to the end.
+     */
+    public Part splitAt(long splitByte) {
+        if (splitByte <= startByte || splitByte > endByte) {
+            throw new IllegalArgumentException("Cannot split " + this + " at " + splitByte);
+        }
+        Part rest = new Part(splitByte, endByte);
+        endByte = splitByte - 1;
+        return rest;
+    }
+
     @Override
     public String toString(){
         return String.valueOf(startByte)+"-"+String.valueOf(endByte);
@@ -0,0 +1,41 @@
+package com.yathindra.downloadmanager;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes every part into its own part file. The part files are joined when the download completes.
+ */
+public class PartFileOutput implements DownloadOutput {
+
+    @Override
+    public PartSink openPart(DownloadPartMetadata partMetadata) throws IOException {
+        boolean append = (partMetadata.getCompletedBytes() != 0);
+        FileOutputStream fileStream = new FileOutputStream(partMetadata.getFilename(), append);
+        return new PartSink() {
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                fileStream.write(buffer, offset, length);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                fileStream.getFD().sync();
+            }
+
+            @Override
+            public void close() throws IOException {
+                fileStream.close();
+            }
+        };
+    }
+
+    @Override
+    public boolean requiresJoin() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,26 @@
+package com.yathindra.downloadmanager;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The destination a single download part writes its bytes to.
+ * A sink starts at the position given by the completed bytes of the part when it was opened.
+ */
+public interface PartSink extends Closeable {
+
+    /**
+     * Writes bytes at the current position of the sink and advances the position.
+     * @param buffer The buffer that holds the data.
+     * @param offset The offset of the data in the buffer.
+     * @param length The number of bytes to write.
+     * @throws IOException Exception is thrown if the data could not be written.
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Makes the bytes written so far durable.
+     * @throws IOException Exception is thrown if the data could not be flushed.
+     */
+    void flush() throws IOException;
+}
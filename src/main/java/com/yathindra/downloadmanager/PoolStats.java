@@ -0,0 +1,168 @@
+package com.yathindra.downloadmanager;
+
+import java.util.Map;
+
+/**
+ * Exposes the metrics of a download pool over JMX.
+ */
+public class PoolStats implements PoolStatsMXBean {
+
+    private final DownloadPool pool;
+
+    /**
+     * Constructor.
+     * @param pool The pool whose metrics are exposed.
+     */
+    public PoolStats(DownloadPool pool) {
+        this.pool = pool;
+    }
+
+    private DownloadMetrics getMetrics() {
+        return pool.getContext().getMetrics();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return getMetrics().getBytesPerSecond();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return getMetrics().getTotalBytes();
+    }
+
+    @Override
+    public int getDownloadCount() {
+        return pool.getDownloadCount();
+    }
+
+    @Override
+    public int getActiveDownloads() {
+        return pool.getScheduler().getActiveCount();
+    }
+
+    @Override
+    public int getQueuedDownloads() {
+        return pool.getScheduler().getQueuedCount();
+    }
+
+    @Override
+    public int getMaxActiveDownloads() {
+        return pool.getMaxActiveDownloads();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return pool.getContext().getConnectionLimiter().getInUse();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return pool.getMaxConnections();
+    }
+
+    @Override
+    public long getMaxBandwidth() {
+        return pool.getMaxBandwidth();
+    }
+
+    @Override
+    public long getRetries() {
+        return getMetrics().getRetries();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return getMetrics().getInvalidations();
+    }
+
+    @Override
+    public long getInvalidatedBytes() {
+        return getMetrics().getInvalidatedBytes();
+    }
+
+    @Override
+    public long getHedges() {
+        return getMetrics().getHedges();
+    }
+
+    @Override
+    public long getHedgesWon() {
+        return getMetrics().getHedgesWon();
+    }
+
+    @Override
+    public double getHedgeSavedMillis() {
+        return getMetrics().getHedgeSavedMillis();
+    }
+
+    @Override
+    public long getCircuitBreakerOpenCount() {
+        return pool.getContext().getCircuitBreakerOpenCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return getMetrics().getErrorCount();
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        return getMetrics().getErrors();
+    }
+
+    @Override
+    public double getAverageTimeToFirstByteMillis() {
+        return getMetrics().getAverageTimeToFirstByteMillis();
+    }
+
+    @Override
+    public double getJoinMillis() {
+        return getMetrics().getJoinMillis();
+    }
+
+    @Override
+    public long getJoinCount() {
+        return getMetrics().getJoinCount();
+    }
+
+    @Override
+    public long getConnectionLeases() {
+        long leases = 0;
+        for (TransportType type : TransportType.values()) {
+            leases += getConnectionPool(type).getLeases();
+        }
+        return leases;
+    }
+
+    @Override
+    public long getReusableConnectionReleases() {
+        long releases = 0;
+        for (TransportType type : TransportType.values()) {
+            releases += getConnectionPool(type).getReusableReleases();
+        }
+        return releases;
+    }
+
+    @Override
+    public long getDiscardedConnectionReleases() {
+        long releases = 0;
+        for (TransportType type : TransportType.values()) {
+            releases += getConnectionPool(type).getDiscardedReleases();
+        }
+        return releases;
+    }
+
+    @Override
+    public long getIdleHostEvictions() {
+        long evictions = 0;
+        for (TransportType type : TransportType.values()) {
+            evictions += getConnectionPool(type).getEvictions();
+        }
+        return evictions;
+    }
+
+    private ConnectionPool getConnectionPool(TransportType type) {
+        return pool.getContext().getTransport(type).getConnectionPool();
+    }
+}
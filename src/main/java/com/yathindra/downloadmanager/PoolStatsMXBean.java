@@ -0,0 +1,59 @@
+package com.yathindra.downloadmanager;
+
+import java.util.Map;
+
+/**
+ * The metrics of a download pool as seen over JMX.
+ */
+public interface PoolStatsMXBean {
+
+    double getBytesPerSecond();
+
+    long getTotalBytes();
+
+    int getDownloadCount();
+
+    int getActiveDownloads();
+
+    int getQueuedDownloads();
+
+    int getMaxActiveDownloads();
+
+    int getActiveConnections();
+
+    int getMaxConnections();
+
+    long getMaxBandwidth();
+
+    long getRetries();
+
+    long getInvalidations();
+
+    long getInvalidatedBytes();
+
+    long getHedges();
+
+    long getHedgesWon();
+
+    double getHedgeSavedMillis();
+
+    long getCircuitBreakerOpenCount();
+
+    long getErrorCount();
+
+    Map<String, Long> getErrors();
+
+    double getAverageTimeToFirstByteMillis();
+
+    double getJoinMillis();
+
+    long getJoinCount();
+
+    long getConnectionLeases();
+
+    long getReusableConnectionReleases();
+
+    long getDiscardedConnectionReleases();
+
+    long getIdleHostEvictions();
+}
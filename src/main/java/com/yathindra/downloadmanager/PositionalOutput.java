@@ -0,0 +1,86 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes every part straight into the target file at the offset of the part.
+ * The target file is preallocated to the size of the download and shared by all parts through one channel.
+ */
+public class PositionalOutput implements DownloadOutput {
+
+    protected final DownloadMetadata downloadMetadata;
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    public PositionalOutput(DownloadMetadata downloadMetadata) {
+        this.downloadMetadata = downloadMetadata;
+    }
+
+    /**
+     * Opens the target file on first use and grows it to the size of the download.
+     * @return The channel shared by all parts.
+     * @throws IOException Exception is thrown if the file could not be opened or resized.
+     */
+    protected synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            file = new RandomAccessFile(downloadMetadata.getFilename(), "rw");
+            if (downloadMetadata.getSize() > 0 && file.length() < downloadMetadata.getSize()) {
+                file.setLength(downloadMetadata.getSize());
+            }
+            channel = file.getChannel();
+        }
+        return channel;
+    }
+
+    @Override
+    public PartSink openPart(DownloadPartMetadata partMetadata) throws IOException {
+        FileChannel target = getChannel();
+        long start = partMetadata.getPart().getStartByte() + partMetadata.getCompletedBytes();
+        return new PartSink() {
+            private long position = start;
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                ByteBuffer data = ByteBuffer.wrap(buffer, offset, length);
+                while (data.hasRemaining()) {
+                    position += target.write(data, position);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                target.force(false);
+            }
+
+            @Override
+            public void close() {
+                //The channel is shared by all parts and closed with the output.
+            }
+        };
+    }
+
+    @Override
+    public boolean requiresJoin() {
+        return false;
+    }
+
+    /**
+     * Closes the target file. A file that grew past the size of the download, since the size was not known while
+     * it was written or an older file had the same name, is cut to the size.
+     * @throws IOException Exception is thrown if the file could not be cut or closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            if (downloadMetadata.getSize() >= 0 && file.length() > downloadMetadata.getSize()) {
+                file.setLength(downloadMetadata.getSize());
+            }
+            file.close();
+            file = null;
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package com.yathindra.downloadmanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the progress of downloads and their parts since the last snapshot of the history,
+ * and of the downloads added to and removed from the history since.
+ * Records are collected in memory and written in batches, and the journal is synced to disk every sync interval.
+ * Records that must not be lost, like a finished download, are synced at once. Every record carries a CRC,
+ * so a record torn by a crash is detected and dropped together with everything after it.
+ * Once the journal grows past the compaction size, a new snapshot of the history is written and the journal
+ * starts over. At startup the journal is replayed over the snapshot and the result is checked against the files on disk.
+ */
+public class ProgressJournal implements Closeable {
+
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_COMPACTION_BYTES = 16L * 1024 * 1024;
+
+    private static final byte PART_PROGRESS = 1;
+    private static final byte PART_SPLIT = 2;
+    private static final byte DOWNLOAD_STATUS = 3;
+    private static final byte DOWNLOAD_HEADERS = 4;
+    private static final byte DOWNLOAD_ADDED = 5;
+    private static final byte DOWNLOAD_REMOVED = 6;
+    //Length and CRC in front of every record.
+    private static final int HEADER_SIZE = 8;
+
+    private final Path path;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private FileChannel channel;
+    private long size;
+    private Runnable compactor;
+    private Thread flusher;
+    private volatile boolean closed;
+    private volatile long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+    private volatile long compactionBytes = DEFAULT_COMPACTION_BYTES;
+
+    /**
+     * Constructor. The journal is opened with {@link #open(Runnable)}.
+     * @param path The path of the journal file, or null for a journal that records nothing.
+     */
+    public ProgressJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns a journal that records nothing, for downloads that run without a history.
+     * @return The disabled journal.
+     */
+    public static ProgressJournal disabled() {
+        return new ProgressJournal(null);
+    }
+
+    public boolean isEnabled() {
+        return path != null;
+    }
+
+    /**
+     * Opens the journal for appending and starts syncing it in the background.
+     * @param compactor Writes a snapshot of the history. It is run before the journal starts over.
+     * @throws IOException Exception is thrown if the journal file cannot be opened.
+     */
+    public synchronized void open(Runnable compactor) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        this.compactor = compactor;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = channel.size();
+        flusher = new Thread(this::syncPeriodically, "progress-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Sets how often the journal is synced to disk. Progress recorded within the last interval may be lost in a crash.
+     * @param syncIntervalMillis The sync interval in milliseconds.
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("The sync interval must be at least 1 ms: " + syncIntervalMillis);
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public long getCompactionBytes() {
+        return compactionBytes;
+    }
+
+    /**
+     * Sets the size of the journal at which a new snapshot is written and the journal starts over.
+     * @param compactionBytes The size in bytes.
+     */
+    public void setCompactionBytes(long compactionBytes) {
+        this.compactionBytes = compactionBytes;
+    }
+
+    private void syncPeriodically() {
+        while (!closed) {
+            try {
+                Thread.sleep(syncIntervalMillis);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            //The thread keeps syncing whatever a single flush or compaction ran into.
+            try {
+                flush();
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(ProgressJournal.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Records the progress of a part. The completed bytes survive a crash of the process,
+     * while only the checkpointed bytes are known to survive a power failure.
+     * @param downloadID The ID of the download.
+     * @param partMetadata The part.
+     */
+    public void partProgress(int downloadID, DownloadPartMetadata partMetadata) {
+        long completedBytes = partMetadata.getCompletedBytes();
+        long checkpointedBytes = partMetadata.getCheckpointedBytes();
+        append(PART_PROGRESS, false, out -> {
+            out.writeInt(downloadID);
+            out.writeInt(partMetadata.getPartID());
+            out.writeLong(completedBytes);
+            out.writeLong(checkpointedBytes);
+        });
+    }
+
+    /**
+     * Records that a new part was split off from the remaining range of a part.
+     * @param downloadID The ID of the download.
+     * @param partMetadata The new part.
+     */
+    public void partSplit(int downloadID, DownloadPartMetadata partMetadata) {
+        append(PART_SPLIT, false, out -> {
+            out.writeInt(downloadID);
+            out.writeInt(partMetadata.parentPartID.getValue());
+            out.writeInt(partMetadata.getPartID());
+            out.writeLong(partMetadata.getPart().getStartByte());
+            out.writeLong(partMetadata.getPart().getEndByte());
+        });
+    }
+
+    /**
+     * Records the status of a download. A finished download is synced at once since its part files are deleted next.
+     * @param downloadID The ID of the download.
+     * @param status The new status.
+     */
+    public void downloadStatus(int downloadID, DownloadStatus status) {
+        append(DOWNLOAD_STATUS, status == DownloadStatus.COMPLETED, out -> {
+            out.writeInt(downloadID);
+            out.writeUTF(status.name());
+        });
+    }
+
+    /**
+     * Records the size and the validators of a download and the parts it was divided into.
+     * @param downloadMetadata The metadata of the download.
+     * @param parts The parts of the download.
+     */
+    public void downloadHeaders(DownloadMetadata downloadMetadata, List<DownloadPartMetadata> parts) {
+        append(DOWNLOAD_HEADERS, true, out -> {
+            out.writeInt(downloadMetadata.getDownloadID());
+            out.writeLong(downloadMetadata.getSize());
+            out.writeBoolean(downloadMetadata.getAccelerated());
+            out.writeInt(parts.size());
+            for (DownloadPartMetadata partMetadata : parts) {
+                out.writeInt(partMetadata.getPartID());
+                out.writeLong(partMetadata.getPart().getStartByte());
+                out.writeLong(partMetadata.getPart().getEndByte());
+            }
+            writeNullableUTF(out, downloadMetadata.getEtag());
+            writeNullableUTF(out, downloadMetadata.getLastModified());
+        });
+    }
+
+    /**
+     * Records a new download, so the history does not have to be written again to hold it.
+     * The record is synced at once, like the history it stands in for.
+     * @param download The download with the parts it has so far.
+     */
+    public void downloadAdded(DownloadInfo download) {
+        append(DOWNLOAD_ADDED, true, out -> {
+            out.writeInt(download.downloadMetadata.getDownloadID());
+            out.writeShort(HistoryFormat.VERSION);
+            HistoryFormat.writeDownload(out, download);
+        });
+    }
+
+    /**
+     * Records that a download was removed from the history.
+     * @param downloadID The ID of the download.
+     */
+    public void downloadRemoved(int downloadID) {
+        append(DOWNLOAD_REMOVED, true, out -> out.writeInt(downloadID));
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes the fields of a record.
+     */
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void append(byte type, boolean sync, RecordWriter writer) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeByte(type);
+            writer.write(out);
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            synchronized (this) {
+                if (channel == null) {
+                    return;
+                }
+                DataOutputStream record = new DataOutputStream(pending);
+                record.writeInt(bytes.length);
+                record.writeInt((int) crc.getValue());
+                record.write(bytes);
+                if (sync) {
+                    flush();
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ProgressJournal.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Writes the pending records and syncs the journal to disk. Compacts the journal if it grew too large.
+     * @throws IOException Exception is thrown if the journal cannot be written.
+     */
+    public synchronized void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if (pending.size() > 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+            pending.reset();
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        if (size >= compactionBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the history and starts the journal over.
+     * Records appended while the snapshot is written wait, so none of them is lost by starting over.
+     * @throws IOException Exception is thrown if the journal cannot be truncated.
+     */
+    public synchronized void compact() throws IOException {
+        if (channel == null) {
+            if (compactor != null) {
+                compactor.run();
+            }
+            return;
+        }
+        //Records written before the snapshot are in the snapshot as well.
+        pending.reset();
+        compactor.run();
+        channel.truncate(0);
+        channel.force(false);
+        size = 0;
+    }
+
+    /**
+     * Applies the journal to the downloads of a snapshot.
+     * Replay stops at the first record that is torn or corrupt, and the journal is cut off there.
+     * Replaying a record that is already in the snapshot changes nothing, so a crash between writing
+     * a snapshot and starting the journal over does no harm.
+     * @param downloads The downloads of the snapshot.
+     * @return The number of records applied.
+     */
+    public int replay(List<DownloadInfo> downloads) {
+        if (!isEnabled() || downloads == null || !Files.exists(path)) {
+            return 0;
+        }
+        int applied = 0;
+        long valid = 0;
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long length = file.length();
+            while (valid + HEADER_SIZE <= length) {
+                file.seek(valid);
+                int recordLength = file.readInt();
+                int recordCrc = file.readInt();
+                if (recordLength <= 0 || valid + HEADER_SIZE + recordLength > length) {
+                    break;
+                }
+                byte[] bytes = new byte[recordLength];
+                file.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != recordCrc) {
+                    break;
+                }
+                apply(bytes, downloads);
+                applied++;
+                valid += HEADER_SIZE + recordLength;
+            }
+            if (valid < length) {
+                Logger.getLogger(ProgressJournal.class.getName()).log(Level.WARNING,
+                        "Dropping {0} bytes of a torn journal record", length - valid);
+                file.setLength(valid);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ProgressJournal.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return applied;
+    }
+
+    private static DownloadInfo findDownload(List<DownloadInfo> downloads, int downloadID) {
+        for (DownloadInfo download : downloads) {
+            if (download.downloadMetadata.getDownloadID() == downloadID) {
+                return download;
+            }
+        }
+        return null;
+    }
+
+    private static DownloadPartMetadata findPart(DownloadInfo download, int partID) {
+        if (download.downloadPartMetadata == null) {
+            return null;
+        }
+        for (DownloadPartMetadata partMetadata : download.downloadPartMetadata) {
+            if (partMetadata.getPartID() == partID) {
+                return partMetadata;
+            }
+        }
+        return null;
+    }
+
+    private void apply(byte[] bytes, List<DownloadInfo> downloads) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = in.readByte();
+        int downloadID = in.readInt();
+        DownloadInfo download = findDownload(downloads, downloadID);
+        if (type == DOWNLOAD_ADDED) {
+            //A download that is in the snapshot already is not added again.
+            if (download == null) {
+                downloads.add(HistoryFormat.readDownload(in, in.readShort()));
+            }
+            return;
+        }
+        if (type == DOWNLOAD_REMOVED) {
+            if (download != null) {
+                downloads.remove(download);
+            }
+            return;
+        }
+        //Records of downloads removed since are skipped.
+        if (download == null) {
+            return;
+        }
+        switch (type) {
+            case PART_PROGRESS: {
+                DownloadPartMetadata partMetadata = findPart(download, in.readInt());
+                long completedBytes = in.readLong();
+                long checkpointedBytes = in.readLong();
+                if (partMetadata != null) {
+                    partMetadata.setCompletedBytes(completedBytes);
+                    partMetadata.setCheckpointedBytes(checkpointedBytes);
+                }
+                break;
+            }
+            case PART_SPLIT: {
+                DownloadPartMetadata parent = findPart(download, in.readInt());
+                int partID = in.readInt();
+                long startByte = in.readLong();
+                long endByte = in.readLong();
+                //A split that is in the snapshot already is not made again.
+                if (parent != null && findPart(download, partID) == null
+                        && startByte > parent.getPart().getStartByte() && startByte <= parent.getPart().getEndByte()) {
+                    parent.getPart().splitAt(startByte);
+                    download.downloadPartMetadata.add(new DownloadPartMetadata(download.downloadMetadata, partID, new Part(startByte, endByte), parent.getPartID()));
+                }
+                break;
+            }
+            case DOWNLOAD_STATUS: {
+                DownloadStatus status = DownloadStatus.valueOf(in.readUTF());
+                //A finished download stays finished even if an older record follows its snapshot.
+                if (download.downloadMetadata.getStatus() != DownloadStatus.COMPLETED) {
+                    download.downloadMetadata.setStatus(status);
+                }
+                break;
+            }
+            case DOWNLOAD_HEADERS: {
+                long size = in.readLong();
+                boolean accelerated = in.readBoolean();
+                int count = in.readInt();
+                if (download.downloadPartMetadata == null) {
+                    download.downloadPartMetadata = new ArrayList<>();
+                }
+                if (!download.downloadPartMetadata.isEmpty()) {
+                    break;
+                }
+                download.downloadMetadata.setSize(size);
+                download.downloadMetadata.setAccelerated(accelerated);
+                for (int i = 0; i < count; i++) {
+                    int partID = in.readInt();
+                    Part part = new Part(in.readLong(), in.readLong());
+                    download.downloadPartMetadata.add(new DownloadPartMetadata(download.downloadMetadata, partID, part));
+                }
+                //Journals written before validators were recorded end here.
+                if (in.available() > 0) {
+                    download.downloadMetadata.setValidators(readNullableUTF(in), readNullableUTF(in));
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * Checks the progress of a download against its files on disk.
+     * A part file proves how much of its part was written, so a part that writes to its own file keeps
+     * its completed bytes as far as the file holds them, and the file is cut back to the progress that is kept.
+     * Parts that write into the target file cannot be checked and go back to their last checkpoint.
+     * @param download The download to check.
+     */
+    public static void reconcile(DownloadInfo download) {
+        DownloadMetadata downloadMetadata = download.downloadMetadata;
+        if (downloadMetadata.getStatus() == DownloadStatus.COMPLETED || download.downloadPartMetadata == null) {
+            return;
+        }
+        boolean partFiles = downloadMetadata.getOutputMode() == OutputMode.PART_FILES;
+        boolean targetExists = new File(downloadMetadata.getFilename()).exists();
+        for (DownloadPartMetadata partMetadata : download.downloadPartMetadata) {
+            long completed;
+            if (partFiles) {
+                completed = Math.min(partMetadata.getCompletedBytes(), partMetadata.getPart().getLength());
+                File file = new File(partMetadata.getFilename());
+                long onDisk = file.exists() ? file.length() : 0;
+                completed = Math.min(completed, onDisk);
+                if (onDisk > completed) {
+                    try (RandomAccessFile partFile = new RandomAccessFile(file, "rw")) {
+                        partFile.setLength(completed);
+                    } catch (IOException ex) {
+                        Logger.getLogger(ProgressJournal.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                }
+            } else {
+                completed = targetExists ? Math.min(partMetadata.getCheckpointedBytes(), partMetadata.getPart().getLength()) : 0;
+            }
+            partMetadata.setCompletedBytes(completed);
+            partMetadata.setCheckpointedBytes(Math.min(partMetadata.getCheckpointedBytes(), completed));
+            if (partMetadata.getRemainingBytes() == 0) {
+                partMetadata.setStatus(DownloadStatus.COMPLETED);
+            } else if (partMetadata.getStatus() == DownloadStatus.COMPLETED) {
+                partMetadata.setStatus(DownloadStatus.STARTING);
+            }
+        }
+    }
+
+    /**
+     * Returns the path of the journal that belongs to a history file.
+     * @param historyFile The path of the history file.
+     * @return The path of the journal.
+     */
+    public static Path pathFor(String historyFile) {
+        return Paths.get(historyFile + ".journal");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (flusher != null) {
+            flusher.interrupt();
+        }
+        if (channel != null) {
+            flush();
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server that announced range support answers a range request with the whole file.
+ * The download goes on as a single stream.
+ */
+public class RangesIgnoredException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RangesIgnoredException(String url, Part part) {
+        super("Server at " + url + " ignored the range request for " + part);
+    }
+}
@@ -0,0 +1,146 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides if and when a failed request of a download is made again.
+ * The delay doubles with every failure in a row, up to a maximum, and a random half of it is left out so that
+ * the parts of many downloads that failed together do not retry together.
+ * A part gives up after a number of failures in a row. Every download also has a retry budget shared by its
+ * parts: each request adds a fraction of a retry to it and each retry takes a whole one, so a download whose
+ * requests keep failing runs out of retries instead of multiplying the load on its server.
+ * The policy of a pool holds the settings. Each download gets its own copy with a fresh budget.
+ */
+public class RetryPolicy {
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 200;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    //The retries a download may make before its requests have earned any, and the most its budget holds.
+    public static final int DEFAULT_MIN_RETRIES = 20;
+    //The retries each request earns.
+    public static final double DEFAULT_RETRY_RATIO = 0.2;
+
+    private volatile long baseDelayMillis;
+    private volatile long maxDelayMillis;
+    private volatile int maxAttempts;
+    private final int minRetries;
+    private final double retryRatio;
+    private double budget;
+
+    public RetryPolicy() {
+        this(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MAX_ATTEMPTS, DEFAULT_MIN_RETRIES, DEFAULT_RETRY_RATIO);
+    }
+
+    /**
+     * Constructor.
+     * @param baseDelayMillis The delay before the first retry in milliseconds.
+     * @param maxDelayMillis The longest delay before a retry in milliseconds.
+     * @param maxAttempts The number of failures in a row after which a part gives up.
+     * @param minRetries The retries the budget starts with, which is also the most it holds.
+     * @param retryRatio The fraction of a retry each request adds to the budget.
+     */
+    public RetryPolicy(long baseDelayMillis, long maxDelayMillis, int maxAttempts, int minRetries, double retryRatio) {
+        if (baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis || maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid retry policy: " + baseDelayMillis + " ms to " + maxDelayMillis + " ms, " + maxAttempts + " attempts");
+        }
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+        this.minRetries = minRetries;
+        this.retryRatio = retryRatio;
+        this.budget = minRetries;
+    }
+
+    /**
+     * Returns a copy of the settings with a full budget, for a download that starts.
+     * @return The retry policy of the download.
+     */
+    public RetryPolicy forDownload() {
+        return new RetryPolicy(baseDelayMillis, maxDelayMillis, maxAttempts, minRetries, retryRatio);
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Records that a request was made, which earns a fraction of a retry.
+     * The budget never holds more than the retries it started with.
+     */
+    public synchronized void recordRequest() {
+        budget = Math.min(minRetries, budget + retryRatio);
+    }
+
+    /**
+     * Returns the retries left in the budget.
+     * @return The number of retries that may still be made.
+     */
+    public synchronized double getBudget() {
+        return budget;
+    }
+
+    /**
+     * Checks if a failed request may be made again, and takes a retry from the budget if so.
+     * @param attempt The number of failures in a row, counting this one.
+     * @param cause The exception the request failed with.
+     * @return If the request is to be made again.
+     */
+    public synchronized boolean tryRetry(int attempt, IOException cause) {
+        if (!isRetryable(cause) || attempt >= maxAttempts || budget < 1) {
+            return false;
+        }
+        budget--;
+        return true;
+    }
+
+    /**
+     * Checks if a request that failed with an exception may succeed when made again.
+     * Client errors other than timeouts and rate limits, and hosts that do not resolve, stay as they are.
+     * @param cause The exception the request failed with.
+     * @return If the failure is worth retrying.
+     */
+    public static boolean isRetryable(IOException cause) {
+        if (cause instanceof HttpStatusException) {
+            return ((HttpStatusException) cause).isRetryable();
+        }
+        return !(cause instanceof UnknownHostException);
+    }
+
+    /**
+     * Returns the time to wait before a retry. It is at least as long as the server asked for.
+     * @param attempt The number of failures in a row.
+     * @param cause The exception the request failed with.
+     * @return The delay in milliseconds.
+     */
+    public long getDelayMillis(int attempt, IOException cause) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(Math.max(0, attempt - 1), 30));
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        if (cause instanceof HttpStatusException) {
+            delay = Math.max(delay, ((HttpStatusException) cause).getRetryAfterMillis());
+        }
+        return delay;
+    }
+}
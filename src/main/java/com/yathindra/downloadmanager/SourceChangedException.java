@@ -0,0 +1,19 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the file of a download was replaced on the server after parts of it were downloaded.
+ */
+public class SourceChangedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SourceChangedException(String url, String validator, String current) {
+        super("File at " + url + " changed from " + validator + " to " + current);
+    }
+
+    public SourceChangedException(String url, long size, long current) {
+        super("File at " + url + " changed its size from " + size + " to " + current + " bytes");
+    }
+}
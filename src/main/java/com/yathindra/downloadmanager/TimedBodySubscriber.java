@@ -0,0 +1,161 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives the body of an {@link HttpClientTransport} response as a stream whose reads time out.
+ * The stream of {@link HttpResponse.BodyHandlers#ofInputStream()} waits for the next buffer without a limit,
+ * so a body that stalls after its headers would hang its part forever. A read of this stream fails like the
+ * read timeout of a URLConnection when no data arrives within the timeout.
+ */
+public class TimedBodySubscriber extends InputStream implements HttpResponse.BodySubscriber<InputStream> {
+
+    //Marks the end of the body in the queue, compared by identity.
+    private static final List<ByteBuffer> END = Collections.unmodifiableList(new ArrayList<>());
+
+    private final int timeout;
+    private final BlockingQueue<List<ByteBuffer>> received = new LinkedBlockingQueue<>();
+    private volatile Flow.Subscription subscription;
+    private volatile Throwable error;
+    private volatile boolean closed;
+    private Iterator<ByteBuffer> buffers = Collections.emptyIterator();
+    private ByteBuffer current;
+    private boolean ended;
+
+    /**
+     * Constructor.
+     * @param timeout The longest time a read waits for data in milliseconds.
+     */
+    public TimedBodySubscriber(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public CompletionStage<InputStream> getBody() {
+        return CompletableFuture.completedStage(this);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (closed) {
+            subscription.cancel();
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        received.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        received.add(END);
+    }
+
+    @Override
+    public void onComplete() {
+        received.add(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        ByteBuffer buffer = nextBuffer();
+        return buffer == null ? -1 : buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        if (length == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = nextBuffer();
+        if (buffer == null) {
+            return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    /**
+     * Returns the buffer to read from next, waiting for the client to deliver one.
+     * @return The buffer with bytes remaining, or null at the end of the body.
+     * @throws IOException Exception is thrown if no data arrives within the timeout or the body failed.
+     */
+    private ByteBuffer nextBuffer() throws IOException {
+        while (current == null || !current.hasRemaining()) {
+            if (closed) {
+                throw new IOException("The body is closed");
+            }
+            if (ended) {
+                if (error != null) {
+                    throw error instanceof IOException ? (IOException) error : new IOException(error);
+                }
+                return null;
+            }
+            if (buffers.hasNext()) {
+                current = buffers.next();
+                continue;
+            }
+            List<ByteBuffer> item;
+            try {
+                item = received.poll(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading the body");
+            }
+            if (item == null) {
+                close();
+                throw new SocketTimeoutException("No data within " + timeout + " ms");
+            }
+            if (item == END) {
+                ended = true;
+            } else {
+                buffers = item.iterator();
+                subscription.request(1);
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Flow.Subscription subscription = this.subscription;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        received.clear();
+        //Wakes a read that waits on another thread.
+        received.add(END);
+    }
+}
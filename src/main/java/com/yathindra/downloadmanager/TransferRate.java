@@ -0,0 +1,33 @@
+package com.yathindra.downloadmanager;
+
+/**
+ * Measures the transfer rate of a byte counter as an exponentially weighted moving average.
+ */
+public class TransferRate {
+
+    private static final double SMOOTHING = 0.3;
+
+    private long lastBytes = -1;
+    private long lastNanos;
+    private double bytesPerSecond;
+
+    /**
+     * Takes a new sample of the counter.
+     * @param totalBytes The current value of the counter.
+     * @param nanos The time of the sample as given by {@link System#nanoTime()}.
+     * @return The smoothed rate in bytes per second.
+     */
+    public synchronized double update(long totalBytes, long nanos) {
+        if (lastBytes >= 0 && nanos > lastNanos) {
+            double sample = (totalBytes - lastBytes) * 1e9 / (nanos - lastNanos);
+            bytesPerSecond = bytesPerSecond == 0 ? sample : SMOOTHING * sample + (1 - SMOOTHING) * bytesPerSecond;
+        }
+        lastBytes = totalBytes;
+        lastNanos = nanos;
+        return bytesPerSecond;
+    }
+
+    public synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
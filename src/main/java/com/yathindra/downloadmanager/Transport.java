@@ -0,0 +1,48 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Makes the HTTP requests of downloads and download parts.
+ */
+public interface Transport {
+
+    /**
+     * Asks the server for the headers of a resource without its body.
+     * @param url The URL of the resource.
+     * @param timeout The timeout in milliseconds.
+     * @return The response of the server.
+     * @throws IOException Exception is thrown if the server cannot be reached.
+     */
+    TransportResponse head(URL url, int timeout) throws IOException;
+
+    /**
+     * Requests a range of bytes of a resource.
+     * @param url The URL of the resource.
+     * @param startByte The first byte of the range.
+     * @param endByte The last byte of the range, inclusive, or {@link Part#UNKNOWN_END} for the rest of the resource.
+     * @param ifRange The validator of the version of the resource the range belongs to, sent as If-Range, or null.
+     *                A server whose resource no longer matches it answers with the whole resource instead of the range.
+     * @param timeout The timeout in milliseconds.
+     * @return The response of the server. The caller closes it.
+     * @throws IOException Exception is thrown if the server cannot be reached or answers with an error.
+     */
+    TransportResponse get(URL url, long startByte, long endByte, String ifRange, int timeout) throws IOException;
+
+    /**
+     * Returns the pool that leases the connections of the transport.
+     * @return The connection pool.
+     */
+    ConnectionPool getConnectionPool();
+
+    /**
+     * Returns the value of the Range header of a request.
+     * @param startByte The first byte of the range.
+     * @param endByte The last byte of the range, or {@link Part#UNKNOWN_END} for the rest of the resource.
+     * @return The byte range.
+     */
+    static String rangeOf(long startByte, long endByte) {
+        return "bytes=" + startByte + "-" + (endByte == Part.UNKNOWN_END ? "" : String.valueOf(endByte));
+    }
+}
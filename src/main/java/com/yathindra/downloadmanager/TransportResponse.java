@@ -0,0 +1,165 @@
+package com.yathindra.downloadmanager;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Function;
+
+/**
+ * The answer of a server to a request made through a {@link Transport}.
+ * Closing the response gives its connection back to the pool, to be reused if the body was read to the end.
+ */
+public class TransportResponse implements Closeable {
+
+    private final int statusCode;
+    private final Function<String, String> headers;
+    private final BodyStream body;
+    private final ConnectionPool.Lease lease;
+
+    /**
+     * Constructor for a response without a body.
+     * @param statusCode The HTTP status code of the response.
+     * @param headers Looks up the first value of a header by its case insensitive name, or null if it is missing.
+     * @param lease The lease of the connection, or null if the connection is not pooled.
+     */
+    public TransportResponse(int statusCode, Function<String, String> headers, ConnectionPool.Lease lease) {
+        this(statusCode, headers, InputStream.nullInputStream(), lease);
+        body.ended = true;
+    }
+
+    /**
+     * Constructor.
+     * @param statusCode The HTTP status code of the response.
+     * @param headers Looks up the first value of a header by its case insensitive name, or null if it is missing.
+     * @param body The body of the response.
+     * @param lease The lease of the connection, or null if the connection is not pooled.
+     */
+    public TransportResponse(int statusCode, Function<String, String> headers, InputStream body, ConnectionPool.Lease lease) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = new BodyStream(body, getContentLength());
+        this.lease = lease;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the first value of a header.
+     * @param name The name of the header.
+     * @return The value of the header, or null if the response does not have it.
+     */
+    public String getHeader(String name) {
+        return headers.apply(name);
+    }
+
+    /**
+     * Returns the length announced in the Content-Length header.
+     * @return The length in bytes, or -1 if the header is missing or invalid.
+     */
+    public long getContentLength() {
+        String length = getHeader("Content-Length");
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the length of the whole resource, which a range response gives after the slash of its Content-Range.
+     * @return The length in bytes, or -1 if the response does not tell it.
+     */
+    public long getResourceLength() {
+        if (statusCode == 200) {
+            return getContentLength();
+        }
+        String range = getHeader("Content-Range");
+        int slash = range == null ? -1 : range.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the validator that identifies the version of the resource the response holds.
+     * @return The validator, or null if the response has none that can be sent as If-Range.
+     * @see DownloadMetadata#getValidator()
+     */
+    public String getValidator() {
+        return DownloadMetadata.toValidator(getHeader("ETag"), getHeader("Last-Modified"));
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            body.close();
+        } finally {
+            if (lease != null) {
+                lease.release(body.ended);
+            }
+        }
+    }
+
+    /**
+     * Notes when the body was read to the end, after which the connection can carry another request.
+     */
+    private static class BodyStream extends FilterInputStream {
+
+        private final long length;
+        private long read;
+        //Read by a hedge that closes the response from its own thread.
+        private volatile boolean ended;
+
+        private BodyStream(InputStream in, long length) {
+            super(in);
+            this.length = length;
+        }
+
+        private void count(long count) {
+            if (count == -1) {
+                ended = true;
+                return;
+            }
+            read += count;
+            if (length >= 0 && read >= length) {
+                ended = true;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            count(value == -1 ? -1 : 1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            count(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            read += skipped;
+            return skipped;
+        }
+    }
+}
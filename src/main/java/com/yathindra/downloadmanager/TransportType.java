@@ -0,0 +1,16 @@
+package com.yathindra.downloadmanager;
+
+/**
+ * The HTTP engines a download can use to talk to its server.
+ */
+public enum TransportType {
+    /**
+     * One blocking {@link java.net.HttpURLConnection} per request.
+     */
+    URL_CONNECTION,
+    /**
+     * A shared {@link java.net.http.HttpClient} that multiplexes the requests for one host over a single
+     * HTTP/2 connection when the server supports it.
+     */
+    HTTP_CLIENT
+}
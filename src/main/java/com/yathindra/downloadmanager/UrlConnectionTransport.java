@@ -0,0 +1,85 @@
+package com.yathindra.downloadmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Makes requests through {@link HttpURLConnection}.
+ * The sockets themselves are kept alive by the keep-alive cache of the JDK, which holds up to
+ * {@code http.maxConnections} idle connections per host and reuses them for bodies that were read to the end.
+ * The connection pool applies the per host limit. It cannot see which sockets the cache reuses, only how many
+ * bodies were read to the end so that their connection could go back into the cache.
+ */
+public class UrlConnectionTransport implements Transport {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final ConnectionPool connectionPool;
+
+    /**
+     * Constructor.
+     * @param connectionPool The pool that leases the connections.
+     */
+    public UrlConnectionTransport(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    @Override
+    public TransportResponse head(URL url, int timeout) throws IOException {
+        ConnectionPool.Lease lease = connectionPool.acquire(url, timeout);
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+//        curl --head <URL>
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(timeout);
+            int statusCode = connection.getResponseCode();
+            return new TransportResponse(statusCode, connection::getHeaderField, lease);
+        } catch (IOException | RuntimeException ex) {
+            lease.release(false);
+            throw ex;
+        }
+    }
+
+    @Override
+    public TransportResponse get(URL url, long startByte, long endByte, String ifRange, int timeout) throws IOException {
+        ConnectionPool.Lease lease = connectionPool.acquire(url, timeout);
+        try {
+            //Setting up the connection.
+            URLConnection connection = url.openConnection();
+            connection.setRequestProperty("Range", Transport.rangeOf(startByte, endByte));
+            if (ifRange != null) {
+                connection.setRequestProperty("If-Range", ifRange);
+            }
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(timeout);
+            connection.connect();
+
+            int statusCode = -1;
+            if (connection instanceof HttpURLConnection) {
+                statusCode = ((HttpURLConnection) connection).getResponseCode();
+                if (statusCode >= 400) {
+                    HttpStatusException error = new HttpStatusException(url, statusCode, connection.getHeaderField("Retry-After"));
+                    //The body of the error is not needed.
+                    InputStream errorStream = ((HttpURLConnection) connection).getErrorStream();
+                    if (errorStream != null) {
+                        errorStream.close();
+                    }
+                    throw error;
+                }
+            }
+            return new TransportResponse(statusCode, connection::getHeaderField, connection.getInputStream(), lease);
+        } catch (IOException | RuntimeException ex) {
+            lease.release(false);
+            throw ex;
+        }
+    }
+}
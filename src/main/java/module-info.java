@@ -6,6 +6,8 @@ module com.yathindra.downloadmanager {
     requires org.controlsfx.controls;
     requires org.kordamp.bootstrapfx.core;
     requires java.logging;
+    requires java.management;
+    requires java.net.http;
     requires xstream;
 //    requires com.jfoenix;
 
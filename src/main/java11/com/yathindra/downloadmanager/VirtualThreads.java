@@ -0,0 +1,29 @@
+package com.yathindra.downloadmanager;
+
+/**
+ * Creates virtual threads. This build targets a runtime without virtual threads, so none can be created.
+ * A build on Java 21 or later compiles the version of this class that creates them.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Checks if this build can create virtual threads.
+     * @return If virtual threads are available.
+     */
+    static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * Creates a virtual thread that is not started yet.
+     * @param task The task the thread runs.
+     * @param name The name of the thread.
+     * @return The unstarted thread.
+     */
+    static Thread newThread(Runnable task, String name) {
+        throw new UnsupportedOperationException("Virtual threads need a build on Java 21 or later");
+    }
+}
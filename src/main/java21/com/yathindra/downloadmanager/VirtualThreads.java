@@ -0,0 +1,28 @@
+package com.yathindra.downloadmanager;
+
+/**
+ * Creates virtual threads. This version is compiled by a build on Java 21 or later.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Checks if this build can create virtual threads.
+     * @return If virtual threads are available.
+     */
+    static boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Creates a virtual thread that is not started yet.
+     * @param task The task the thread runs.
+     * @param name The name of the thread.
+     * @return The unstarted thread.
+     */
+    static Thread newThread(Runnable task, String name) {
+        return Thread.ofVirtual().name(name).unstarted(task);
+    }
+}
@@ -0,0 +1,223 @@
+package com.yathindra.downloadmanager;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Runs downloads through a {@link DownloadPool} against a {@link RangeServer} with one failure mode per test,
+ * on every transport. A download has to complete with exactly the bytes of the synthetic file, and a download
+ * of a missing file has to fail without leaving a file behind.
+ */
+class DownloadScenarioTest {
+
+    private static final long SIZE = 8L * 1024 * 1024;
+    private static final long TIMEOUT_MILLIS = 30000;
+    private static final long POLL_MILLIS = 10;
+
+    private static RangeServer server;
+
+    @TempDir
+    Path directory;
+
+    private DownloadPool pool;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = new RangeServer();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteHistory();
+        server.clearFaults();
+        server.setEtag("\"v1\"");
+        pool = new DownloadPool();
+        pool.setDownloadDirectory(directory.toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (DownloadThread download : new ArrayList<>(pool.getDownloadThreads())) {
+            pool.removeDownload(download);
+            pool.joinThread(download);
+        }
+        deleteHistory();
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportType.class)
+    void downloadsFile(TransportType transport) throws Exception {
+        DownloadThread download = startDownload(transport, server.getUrl(SIZE));
+
+        assertCompleted(download);
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportType.class)
+    void recoversFromResetConnections(TransportType transport) throws Exception {
+        server.resetConnections(6, 1024 * 1024);
+
+        DownloadThread download = startDownload(transport, server.getUrl(SIZE));
+
+        assertCompleted(download);
+        assertTrue(download.getDownload().getMetrics().getRetries() > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportType.class)
+    void retriesUnavailableServer(TransportType transport) throws Exception {
+        server.refuseRequests(5);
+
+        DownloadThread download = startDownload(transport, server.getUrl(SIZE));
+
+        assertCompleted(download);
+        assertTrue(download.getDownload().getMetrics().getRetries() > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportType.class)
+    void streamsFileWhenRangesAreIgnored(TransportType transport) throws Exception {
+        server.setIgnoreRanges(true);
+
+        DownloadThread download = startDownload(transport, server.getUrl(SIZE));
+
+        assertCompleted(download);
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportType.class)
+    void hedgesSlowConnection(TransportType transport) throws Exception {
+        server.setRateLimit(2L * 1024 * 1024);
+        server.slowConnections(1, 64 * 1024);
+
+        DownloadThread download = startDownload(transport, server.getUrl(SIZE));
+
+        assertCompleted(download);
+        DownloadMetrics metrics = download.getDownload().getMetrics();
+        assertTrue(metrics.getHedges() > 0);
+        assertTrue(metrics.getHedgesWon() > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportType.class)
+    void resumesPausedDownload(TransportType transport) throws Exception {
+        server.setRateLimit(2L * 1024 * 1024);
+        DownloadThread download = startDownload(transport, server.getUrl(SIZE));
+        awaitCompletedBytes(download, SIZE / 4);
+
+        assertEquals(DownloadAction.Response.PAUSED, pool.pauseDownload(download).get(5, TimeUnit.SECONDS));
+        long paused = download.getDownload().getCompletedBytes();
+        Thread.sleep(500);
+        assertEquals(paused, download.getDownload().getCompletedBytes());
+        server.setRateLimit(0);
+        pool.resumeDownload(download).get(5, TimeUnit.SECONDS);
+
+        assertCompleted(download);
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportType.class)
+    void downloadsChangedFileAgain(TransportType transport) throws Exception {
+        server.setRateLimit(2L * 1024 * 1024);
+        DownloadThread download = startDownload(transport, server.getUrl(SIZE));
+        awaitCompletedBytes(download, SIZE / 4);
+
+        pool.pauseDownload(download).get(5, TimeUnit.SECONDS);
+        server.setEtag("\"v2\"");
+        server.setRateLimit(0);
+        pool.resumeDownload(download).get(5, TimeUnit.SECONDS);
+
+        assertCompleted(download);
+        assertTrue(download.getDownload().getMetrics().getInvalidatedBytes() > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportType.class)
+    void failsOnMissingFile(TransportType transport) throws Exception {
+        DownloadThread download = startDownload(transport, server.getMissingUrl());
+
+        awaitEnd(download);
+        assertEquals(DownloadStatus.ERROR, download.getDownloadMetadata().getStatus());
+        assertFalse(Files.exists(Path.of(download.getDownloadMetadata().getFilename())));
+    }
+
+    private DownloadThread startDownload(TransportType transport, String url) {
+        pool.setDefaultTransport(transport);
+        pool.newDownload(url);
+        return pool.getDownloadThreads().get(pool.getDownloadThreads().size() - 1);
+    }
+
+    private static void awaitCompletedBytes(DownloadThread download, long bytes) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (download.getDownload() == null || download.getDownload().getCompletedBytes() < bytes) {
+            if (System.nanoTime() > deadline) {
+                fail("The download did not reach " + bytes + " bytes");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private static void awaitEnd(DownloadThread download) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (true) {
+            DownloadStatus status = download.getDownloadMetadata().getStatus();
+            if ((status == DownloadStatus.COMPLETED || status == DownloadStatus.ERROR) && !download.isAlive()) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                fail("The download did not end, it is " + status);
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private static void assertCompleted(DownloadThread download) throws IOException, InterruptedException {
+        awaitEnd(download);
+        assertEquals(DownloadStatus.COMPLETED, download.getDownloadMetadata().getStatus());
+        Path file = Path.of(download.getDownloadMetadata().getFilename());
+        assertEquals(SIZE, Files.size(file));
+        byte[] expected = new byte[1024 * 1024];
+        byte[] actual = new byte[expected.length];
+        try (InputStream in = new FileInputStream(file.toFile())) {
+            for (long position = 0; position < SIZE; position += expected.length) {
+                int length = (int) Math.min(expected.length, SIZE - position);
+                assertEquals(length, in.readNBytes(actual, 0, length));
+                RangeServer.fill(expected, position, length);
+                assertArrayEquals(expected, actual, "Bytes differ in the MiB at " + position);
+            }
+        }
+    }
+
+    /**
+     * Deletes the history and the journal the pool keeps in the working directory, so no test resumes the downloads of another.
+     */
+    private static void deleteHistory() throws IOException {
+        String history = new DownloadStorage().getPath();
+        Files.deleteIfExists(Path.of(history));
+        Files.deleteIfExists(ProgressJournal.pathFor(history));
+    }
+}
@@ -0,0 +1,318 @@
+package com.yathindra.downloadmanager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process HTTP server for load and fault injection testing.
+ * It serves synthetic files of any size under {@code /synthetic/<size>.bin} with Accept-Ranges, Content-Length,
+ * an ETag and Range support. The content of every file is computed from the position, so files of many
+ * gigabytes take no memory and a download can be verified with {@link #fill(byte[], long, int)}.
+ * Its failure modes can be changed while it serves: a rate limit per connection, single connections that are
+ * slower than the rest, added latency, connections reset in the middle of a body, 503 answers, and ranges that are ignored.
+ */
+public class RangeServer implements Closeable {
+
+    private static final String PREFIX = "/synthetic/";
+    private static final String LAST_MODIFIED = "Thu, 01 Jan 2026 00:00:00 GMT";
+    //The content repeats a prime sized block, each repetition changed by its index, so misplaced ranges show up.
+    private static final int BLOCK = 65521;
+    private static final byte[] TEMPLATE = new byte[BLOCK];
+    private static final int WRITE_CHUNK = 64 * 1024;
+
+    static {
+        new Random(BLOCK).nextBytes(TEMPLATE);
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder faults = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final AtomicInteger resetsLeft = new AtomicInteger();
+    private final AtomicInteger unavailableLeft = new AtomicInteger();
+    private final AtomicInteger slowLeft = new AtomicInteger();
+    private final AtomicLong lastFaultNanos = new AtomicLong();
+    private final AtomicLong recoveredNanos = new AtomicLong();
+    private volatile long resetAfterBytes;
+    private volatile long rateLimit;
+    private volatile long slowRateLimit;
+    private volatile long latencyMillis;
+    private volatile boolean ignoreRanges;
+    private volatile String etag = "\"v1\"";
+
+    /**
+     * Constructor. The server starts listening on a free port of the loopback interface.
+     * @throws IOException Exception is thrown if the server cannot be started.
+     */
+    public RangeServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PREFIX, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the URL of a synthetic file.
+     * @param size The size of the file in bytes.
+     * @return The URL of the file.
+     */
+    public String getUrl(long size) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PREFIX + size + ".bin";
+    }
+
+    /**
+     * Returns the URL of a file the server does not have, which it answers with 404 Not Found.
+     * @return The URL of the missing file.
+     */
+    public String getMissingUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PREFIX + "missing.bin";
+    }
+
+    /**
+     * Fills a buffer with the content of every synthetic file at a position.
+     * @param buffer The buffer to fill.
+     * @param position The position in the file of the first byte.
+     * @param length The number of bytes to fill.
+     */
+    public static void fill(byte[] buffer, long position, int length) {
+        int offset = 0;
+        while (offset < length) {
+            int index = (int) (position % BLOCK);
+            byte block = (byte) (position / BLOCK);
+            int count = Math.min(length - offset, BLOCK - index);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) (TEMPLATE[index + i] ^ block);
+            }
+            offset += count;
+            position += count;
+        }
+    }
+
+    /**
+     * Limits the rate at which every response body is sent.
+     * @param bytesPerSecond The rate per connection, or 0 for no limit.
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        this.rateLimit = bytesPerSecond;
+    }
+
+    /**
+     * Sends the bodies of the next responses at a lower rate than the others, like a connection on a congested path.
+     * @param count The number of responses to slow down.
+     * @param bytesPerSecond The rate of the slow responses.
+     */
+    public void slowConnections(int count, long bytesPerSecond) {
+        this.slowRateLimit = bytesPerSecond;
+        slowLeft.set(count);
+    }
+
+    /**
+     * Delays every response.
+     * @param latencyMillis The delay before the headers are sent in milliseconds.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Makes the server answer range requests with the whole file, as some proxies do.
+     * @param ignoreRanges If ranges are ignored.
+     */
+    public void setIgnoreRanges(boolean ignoreRanges) {
+        this.ignoreRanges = ignoreRanges;
+    }
+
+    /**
+     * Changes the ETag, as if the file was replaced on the server.
+     * @param etag The new ETag, quoted.
+     */
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Resets the connections of the next responses in the middle of their body.
+     * @param count The number of responses to reset.
+     * @param afterBytes The number of body bytes sent before the connection is reset.
+     */
+    public void resetConnections(int count, long afterBytes) {
+        this.resetAfterBytes = afterBytes;
+        resetsLeft.set(count);
+    }
+
+    /**
+     * Answers the next GET requests with 503 Service Unavailable.
+     * @param count The number of requests to refuse.
+     */
+    public void refuseRequests(int count) {
+        unavailableLeft.set(count);
+    }
+
+    /**
+     * Removes all failure modes and forgets the last fault.
+     */
+    public void clearFaults() {
+        setRateLimit(0);
+        setLatencyMillis(0);
+        setIgnoreRanges(false);
+        resetsLeft.set(0);
+        unavailableLeft.set(0);
+        slowLeft.set(0);
+        lastFaultNanos.set(0);
+        recoveredNanos.set(0);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getFaults() {
+        return faults.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Returns the time from the last injected fault to the first body byte of a request made after it.
+     * @return The recovery time in nanoseconds, or -1 if there was no fault or no request recovered from it yet.
+     */
+    public long getRecoveryNanos() {
+        long fault = lastFaultNanos.get();
+        long recovered = recoveredNanos.get();
+        return fault == 0 || recovered < fault ? -1 : recovered - fault;
+    }
+
+    private boolean take(AtomicInteger counter) {
+        return counter.getAndUpdate(left -> Math.max(0, left - 1)) > 0;
+    }
+
+    private void recordFault() {
+        faults.increment();
+        lastFaultNanos.set(System.nanoTime());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long requestNanos = System.nanoTime();
+        requests.increment();
+        //HttpExchange is only AutoCloseable from Java 14 on.
+        try {
+            long size;
+            try {
+                String name = exchange.getRequestURI().getPath().substring(PREFIX.length());
+                size = Long.parseLong(name.substring(0, name.length() - ".bin".length()));
+            } catch (RuntimeException ex) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            long latency = latencyMillis;
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            String currentEtag = etag;
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("ETag", currentEtag);
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(size));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (take(unavailableLeft)) {
+                recordFault();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            long start = 0;
+            long end = size - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            //A range is only served for the version of the file the client already has.
+            boolean ranged = range != null && range.startsWith("bytes=") && !ignoreRanges
+                    && (ifRange == null || ifRange.equals(currentEtag) || ifRange.equals(LAST_MODIFIED));
+            if (ranged) {
+                String[] bounds = range.substring("bytes=".length()).split("-", 2);
+                start = Long.parseLong(bounds[0]);
+                if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+                if (start > end) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+                exchange.sendResponseHeaders(206, end - start + 1);
+            } else {
+                if (range != null && ignoreRanges) {
+                    recordFault();
+                }
+                exchange.sendResponseHeaders(200, size);
+            }
+            long length = end - start + 1;
+            long limit = take(resetsLeft) ? Math.min(length, resetAfterBytes) : length;
+            boolean slow = take(slowLeft);
+            if (slow) {
+                recordFault();
+            }
+            sendBody(exchange.getResponseBody(), start, limit, requestNanos, slow);
+            if (limit < length) {
+                //Closing the exchange short of its length makes the server drop the connection.
+                recordFault();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendBody(OutputStream body, long start, long length, long requestNanos, boolean slow) throws IOException, InterruptedException {
+        byte[] buffer = new byte[WRITE_CHUNK];
+        long sent = 0;
+        long begin = System.nanoTime();
+        while (sent < length) {
+            int count = (int) Math.min(buffer.length, length - sent);
+            fill(buffer, start + sent, count);
+            body.write(buffer, 0, count);
+            if (sent == 0 && requestNanos > lastFaultNanos.get()) {
+                recoveredNanos.accumulateAndGet(System.nanoTime(), (current, now) -> current < lastFaultNanos.get() ? now : current);
+            }
+            sent += count;
+            bytesSent.add(count);
+            long rate = slow ? slowRateLimit : rateLimit;
+            if (rate > 0) {
+                long due = begin + sent * TimeUnit.SECONDS.toNanos(1) / rate;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}